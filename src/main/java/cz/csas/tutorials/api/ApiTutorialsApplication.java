@@ -53,6 +53,8 @@ public class ApiTutorialsApplication {
         }
 
         HttpComponentsClientHttpRequestFactory clientHttpRequestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        clientHttpRequestFactory.setConnectTimeout(environment.getRequiredProperty("httpConnectTimeoutMs", Integer.class));
+        clientHttpRequestFactory.setReadTimeout(environment.getRequiredProperty("httpReadTimeoutMs", Integer.class));
         RestTemplate restTemplate = new RestTemplate(clientHttpRequestFactory);
         FormHttpMessageConverter converter = new FormHttpMessageConverter();
         List<MediaType> mediaTypes = new ArrayList<>();
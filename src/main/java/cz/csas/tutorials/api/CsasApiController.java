@@ -3,10 +3,16 @@ package cz.csas.tutorials.api;
 import cz.csas.tutorials.api.model.ExchangeCodeForTokenException;
 import cz.csas.tutorials.api.model.ExpiredRefreshTokenException;
 import cz.csas.tutorials.api.model.ExpiredTokenException;
+import cz.csas.tutorials.api.model.ExportFormat;
+import cz.csas.tutorials.api.model.ExportJobNotFoundException;
+import cz.csas.tutorials.api.model.ExportJobStatus;
+import cz.csas.tutorials.api.model.PageSizeStats;
 import cz.csas.tutorials.api.model.StateNotFoundException;
 import cz.csas.tutorials.api.model.TokenResponse;
+import cz.csas.tutorials.api.services.AdaptivePageSizer;
 import cz.csas.tutorials.api.services.AuthService;
 import cz.csas.tutorials.api.services.CorpService;
+import cz.csas.tutorials.api.services.ExportService;
 import cz.csas.tutorials.api.services.PersService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,12 +20,18 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
 /**
- * Controller class, 3 methods for corporate API, 1 method for personal accounts API. All authorization calls are served
- * in authService.
+ * Controller class, methods for corporate API (single page or all pages), personal accounts API (single page or all
+ * pages), adaptive paging statistics and transaction export jobs. All authorization calls are served in authService.
  */
 @RestController
 @Slf4j
@@ -28,12 +40,17 @@ public class CsasApiController {
     private final AuthService authService;
     private final CorpService corpService;
     private final PersService persService;
+    private final AdaptivePageSizer pageSizer;
+    private final ExportService exportService;
 
     @Autowired
-    public CsasApiController(AuthService authService, CorpService corpService, PersService persService) {
+    public CsasApiController(AuthService authService, CorpService corpService, PersService persService,
+                             AdaptivePageSizer pageSizer, ExportService exportService) {
         this.authService = authService;
         this.corpService = corpService;
         this.persService = persService;
+        this.pageSizer = pageSizer;
+        this.exportService = exportService;
     }
 
     @Value("${authorizationRedirectUri}")
@@ -49,6 +66,33 @@ public class CsasApiController {
     private String accessToken = null;
     private String refreshToken = null;
 
+    /**
+     * Gets new tokens from CSAS IDP or from another application instance which has already refreshed them.
+     *
+     * @throws ExpiredRefreshTokenException if refresh token has expired.
+     */
+    private void refreshTokens() throws ExpiredRefreshTokenException {
+        TokenResponse tokens = authService.getNewTokens(accessToken, refreshToken, clientId, clientSecret);
+        accessToken = tokens.getAccessToken();
+        refreshToken = tokens.getRefreshToken();
+    }
+
+    /**
+     * Takes over tokens shared by another application instance if this instance has not been authorized itself.
+     *
+     * @return true if refresh token is available
+     */
+    private boolean hasTokens() {
+        if (refreshToken == null) {
+            TokenResponse tokens = authService.getSharedTokens(clientId);
+            if (tokens != null) {
+                accessToken = tokens.getAccessToken();
+                refreshToken = tokens.getRefreshToken();
+            }
+        }
+        return refreshToken != null;
+    }
+
     /**
      * Builds url that is used for user authorization.
      *
@@ -101,7 +145,7 @@ public class CsasApiController {
         } catch (ExpiredTokenException e) {
             log.debug("Refreshing access token with refresh token = " + refreshToken); // Do not log token in production!
             try {
-                accessToken = authService.getNewAccessToken(refreshToken, clientId, clientSecret);
+                refreshTokens();
             } catch (ExpiredRefreshTokenException e1) {
                 log.debug("Refresh token has expired. Client has to be authorized.");
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
@@ -114,6 +158,38 @@ public class CsasApiController {
         return ResponseEntity.ok().body(accounts);
     }
 
+    /**
+     * Calls corporate accounts API v1/corporate/our/accounts page by page and returns all accounts. Page size is chosen
+     * adaptively, see /paging/stats.
+     *
+     * @param sort  for results sorting
+     * @param order asc/desc
+     * @return JSON array of all accounts in String form
+     * @throws ExpiredTokenException if new access token is rejected by CSAS IDP.
+     */
+    @GetMapping("/corpaccounts/all")
+    public ResponseEntity<String> getAllCorpAccounts(@RequestParam(required = false) String sort,
+                                                     @RequestParam(required = false) String order) throws ExpiredTokenException {
+        String accounts;
+        try {
+            accounts = corpService.getAllCorpAccounts(accessToken, webApiKey, sort, order);
+            log.debug("Calling corporate accounts API for all pages. Response = " + accounts);
+        } catch (ExpiredTokenException e) {
+            log.debug("Refreshing access token with refresh token = " + refreshToken); // Do not log token in production!
+            try {
+                refreshTokens();
+            } catch (ExpiredRefreshTokenException e1) {
+                log.debug("Refresh token has expired. Client has to be authorized.");
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .header("WWW-Authenticate", "Bearer")
+                        .body("Refresh token has expired. Client has to be authorized.");
+            }
+            accounts = corpService.getAllCorpAccounts(accessToken, webApiKey, sort, order);
+        }
+
+        return ResponseEntity.ok().body(accounts);
+    }
+
     /**
      * Calls corporate account balance API v1/corporate/our/accounts/id/balance, see docs https://developers.erstegroup.com/docs/apis/bank.csas/v1/corporate
      *
@@ -130,7 +206,7 @@ public class CsasApiController {
         } catch (ExpiredTokenException e) {
 			log.debug("Refreshing access token with refresh token = " + refreshToken); // Do not log token in production!
 			try {
-				accessToken = authService.getNewAccessToken(refreshToken, clientId, clientSecret);
+				refreshTokens();
 			} catch (ExpiredRefreshTokenException e1) {
 				log.debug("Refresh token has expired. Client has to be authorized.");
 				return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
@@ -172,7 +248,7 @@ public class CsasApiController {
         } catch (ExpiredTokenException e) {
 			log.debug("Refreshing access token with refresh token = " + refreshToken); // Do not log token in production!
 			try {
-				accessToken = authService.getNewAccessToken(refreshToken, clientId, clientSecret);
+				refreshTokens();
 			} catch (ExpiredRefreshTokenException e1) {
 				log.debug("Refresh token has expired. Client has to be authorized.");
 				return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
@@ -187,6 +263,45 @@ public class CsasApiController {
         return ResponseEntity.ok().body(transHistory);
     }
 
+    /**
+     * Calls corporate transaction history API v1/corporate/our/accounts/id/transactions page by page and returns all
+     * transactions in given time window. Page size is chosen adaptively, see /paging/stats.
+     *
+     * @param id        account number, e.g. 3520EF975815E488AFED5180CD32689934720E12
+     * @param sort      for results sorting
+     * @param order     asc/desc
+     * @param startDate start date of transactions list
+     * @param endDate   end date of transactions list
+     * @return JSON array of all transactions in String form
+     * @throws ExpiredTokenException if new access token is rejected by CSAS IDP.
+     */
+    @GetMapping("/corptranshist/all")
+    public ResponseEntity<String> getAllTransHistory(@RequestParam(defaultValue = "1") String id,
+                                                     @RequestParam(required = false) String sort,
+                                                     @RequestParam(required = false) String order,
+                                                     @RequestParam(defaultValue = "2016-09-04T00:00:00+01:00") String startDate,
+                                                     @RequestParam(defaultValue = "2018-09-04T00:00:00+01:00") String endDate
+    ) throws ExpiredTokenException {
+        String transHistory;
+        try {
+            transHistory = corpService.getAllTransHistory(id, accessToken, webApiKey, sort, order, startDate, endDate);
+            log.debug("Calling corporate transaction history API for all pages. Response = " + transHistory);
+        } catch (ExpiredTokenException e) {
+            log.debug("Refreshing access token with refresh token = " + refreshToken); // Do not log token in production!
+            try {
+                refreshTokens();
+            } catch (ExpiredRefreshTokenException e1) {
+                log.debug("Refresh token has expired. Client has to be authorized.");
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .header("WWW-Authenticate", "Bearer")
+                        .body("Refresh token has expired. Client has to be authorized.");
+            }
+            transHistory = corpService.getAllTransHistory(id, accessToken, webApiKey, sort, order, startDate, endDate);
+        }
+
+        return ResponseEntity.ok().body(transHistory);
+    }
+
     /**
      * Calls personal accounts list API v3/netbanking/my/accounts, see docs https://developers.erstegroup.com/docs/apis/bank.csas/v3/netbanking
      *
@@ -216,7 +331,7 @@ public class CsasApiController {
         } catch (ExpiredTokenException e) {
             log.debug("Refreshing access token with refresh token = " + refreshToken); // Do not log token in production!
 			try {
-				accessToken = authService.getNewAccessToken(refreshToken, clientId, clientSecret);
+				refreshTokens();
 			} catch (ExpiredRefreshTokenException e1) {
 				log.debug("Refresh token has expired. Client has to be authorized.");
 				return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
@@ -230,4 +345,123 @@ public class CsasApiController {
         return ResponseEntity.ok().body(accounts);
     }
 
+    /**
+     * Calls personal accounts list API v3/netbanking/my/accounts page by page and returns all accounts. Page size is
+     * chosen adaptively, see /paging/stats.
+     *
+     * @param sort       for results sorting
+     * @param order      asc/desc
+     * @param type       An optional comma-separated list of requested product types. Example: CURRENT
+     * @param flagFilter An optional comma-separated list of flags that will be used for account filtering.
+     * @return JSON array of all accounts in String form
+     * @throws ExpiredTokenException if new access token is rejected by CSAS IDP.
+     */
+    @GetMapping("/persaccounts/all")
+    public ResponseEntity<String> getAllPersAccounts(@RequestParam(required = false) String sort,
+                                                     @RequestParam(required = false) String order,
+                                                     @RequestParam(required = false) String type,
+                                                     @RequestParam(required = false) String flagFilter
+    ) throws ExpiredTokenException {
+        String accounts;
+        try {
+            accounts = persService.getAllPersAccounts(accessToken, webApiKey, sort, order, type, flagFilter);
+            log.debug("Calling personal accounts API for all pages. Response = " + accounts);
+        } catch (ExpiredTokenException e) {
+            log.debug("Refreshing access token with refresh token = " + refreshToken); // Do not log token in production!
+            try {
+                refreshTokens();
+            } catch (ExpiredRefreshTokenException e1) {
+                log.debug("Refresh token has expired. Client has to be authorized.");
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .header("WWW-Authenticate", "Bearer")
+                        .body("Refresh token has expired. Client has to be authorized.");
+            }
+            accounts = persService.getAllPersAccounts(accessToken, webApiKey, sort, order, type, flagFilter);
+        }
+        return ResponseEntity.ok().body(accounts);
+    }
+
+    /**
+     * Reports page sizes chosen for paginated upstream calls and their effect (latency, throughput, errors).
+     *
+     * @return paging statistics by upstream API
+     */
+    @GetMapping("/paging/stats")
+    public ResponseEntity<Map<String, PageSizeStats>> getPagingStats() {
+        return ResponseEntity.ok(pageSizer.getStats());
+    }
+
+    /**
+     * Starts background export of transaction history of all corporate accounts into a file in export directory.
+     *
+     * @param format    NDJSON or CSV
+     * @param startDate start date of transactions list
+     * @param endDate   end date of transactions list
+     * @return status of started export job
+     * @throws IOException if export job directory can not be created
+     */
+    @PostMapping("/export")
+    public ResponseEntity startExport(@RequestParam(defaultValue = "NDJSON") ExportFormat format,
+                                      @RequestParam(defaultValue = "2016-09-04T00:00:00+01:00") String startDate,
+                                      @RequestParam(defaultValue = "2018-09-04T00:00:00+01:00") String endDate) throws IOException {
+        if (!hasTokens()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .header("WWW-Authenticate", "Bearer")
+                    .body("Client has to be authorized.");
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(exportService.startExport(format, startDate, endDate, accessToken, refreshToken));
+    }
+
+    /**
+     * Resumes export job which has been paused (expired refresh token), failed or interrupted by application restart.
+     * Accounts exported before are skipped.
+     *
+     * @param jobId export job id
+     * @return status of resumed export job
+     * @throws IOException if export job can not be loaded
+     */
+    @PostMapping("/export/{jobId}/resume")
+    public ResponseEntity resumeExport(@PathVariable String jobId) throws IOException {
+        if (!hasTokens()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .header("WWW-Authenticate", "Bearer")
+                    .body("Client has to be authorized.");
+        }
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(exportService.resumeExport(jobId, accessToken, refreshToken));
+        } catch (ExportJobNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
+    /**
+     * Reports state, progress and throughput of export job.
+     *
+     * @param jobId export job id
+     * @return status of export job
+     * @throws IOException if export job can not be loaded
+     */
+    @GetMapping("/export/{jobId}")
+    public ResponseEntity getExportStatus(@PathVariable String jobId) throws IOException {
+        try {
+            return ResponseEntity.ok(exportService.getStatus(jobId));
+        } catch (ExportJobNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
+    /**
+     * Reports statuses of export jobs known since application start.
+     *
+     * @return statuses of export jobs
+     */
+    @GetMapping("/export")
+    public ResponseEntity<List<ExportJobStatus>> getExportStatuses() {
+        return ResponseEntity.ok(exportService.getStatuses());
+    }
+
 }
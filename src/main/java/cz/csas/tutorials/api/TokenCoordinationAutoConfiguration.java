@@ -0,0 +1,43 @@
+package cz.csas.tutorials.api;
+
+import cz.csas.tutorials.api.services.FileTokenRefreshCoordinator;
+import cz.csas.tutorials.api.services.LocalTokenRefreshCoordinator;
+import cz.csas.tutorials.api.services.TokenRefreshCoordinator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.util.StringUtils;
+
+import java.nio.file.Paths;
+
+/**
+ * Default token refresh coordination between application instances. Registered as auto-configuration
+ * (META-INF/spring.factories), so it is processed after all application beans and any own TokenRefreshCoordinator
+ * bean replaces it.
+ */
+@Configuration
+public class TokenCoordinationAutoConfiguration {
+
+    private final Environment environment;
+
+    public TokenCoordinationAutoConfiguration(Environment environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Instances on one host share tokens through tokenCoordinationFile, when it is empty tokens are coordinated within
+     * this instance only.
+     */
+    @Bean
+    @ConditionalOnMissingBean(TokenRefreshCoordinator.class)
+    public TokenRefreshCoordinator getTokenRefreshCoordinator() {
+        String tokenCoordinationFile = environment.getRequiredProperty("tokenCoordinationFile");
+        if (!StringUtils.isEmpty(tokenCoordinationFile)) {
+            return new FileTokenRefreshCoordinator(Paths.get(tokenCoordinationFile),
+                    environment.getRequiredProperty("tokenCoordinationLockTimeoutMs", Long.class));
+        } else {
+            return new LocalTokenRefreshCoordinator();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package cz.csas.tutorials.api.model;
+
+/**
+ * Output format of transaction export.
+ */
+public enum ExportFormat {
+    NDJSON("ndjson"),
+    CSV("csv");
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,10 @@
+package cz.csas.tutorials.api.model;
+
+/**
+ * Thrown when export job is neither running nor found in export directory.
+ */
+public class ExportJobNotFoundException extends Exception {
+    public ExportJobNotFoundException(String message) {
+        super(message);
+    }
+}
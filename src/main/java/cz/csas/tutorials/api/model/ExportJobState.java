@@ -0,0 +1,17 @@
+package cz.csas.tutorials.api.model;
+
+/**
+ * State of transaction export job.
+ */
+public enum ExportJobState {
+    /** Accounts are being exported. */
+    RUNNING,
+    /** All accounts have been exported. */
+    COMPLETED,
+    /** Some accounts failed, resume to retry them. */
+    FAILED,
+    /** Refresh token has expired, resume after client is authorized again. */
+    PAUSED,
+    /** Job was found on disk only (application has been restarted), resume to continue. */
+    INTERRUPTED
+}
@@ -0,0 +1,27 @@
+package cz.csas.tutorials.api.model;
+
+import lombok.Data;
+
+/**
+ * DTO object to hold state, progress and throughput of transaction export job
+ */
+@Data
+public class ExportJobStatus {
+    String jobId;
+    ExportJobState state;
+    ExportFormat format;
+    String dateStart;
+    String dateEnd;
+    String outputFile;
+    String message;
+    int totalAccounts;
+    int completedAccounts;
+    int resumedAccounts;
+    int failedAccounts;
+    long transactions;
+    long bytesWritten;
+    long elapsedMs;
+    double accountsPerSecond;
+    double transactionsPerSecond;
+    double bytesPerSecond;
+}
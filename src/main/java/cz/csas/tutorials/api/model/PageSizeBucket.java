@@ -0,0 +1,44 @@
+package cz.csas.tutorials.api.model;
+
+import lombok.Data;
+
+/**
+ * DTO object to hold paging statistics of calls made with one particular page size
+ */
+@Data
+public class PageSizeBucket {
+    long pages;
+    long errors;
+    long items;
+    long bytes;
+    long latencyMs;
+
+    public void record(long latencyMs, long bytes, int items) {
+        this.pages++;
+        this.items += items;
+        this.bytes += bytes;
+        this.latencyMs += latencyMs;
+    }
+
+    public void recordError(long latencyMs) {
+        this.errors++;
+        this.latencyMs += latencyMs;
+    }
+
+    /**
+     * @return items fetched per second of upstream time spent with this page size
+     */
+    public double getItemsPerSecond() {
+        return latencyMs == 0 ? 0 : items * 1000.0 / latencyMs;
+    }
+
+    public PageSizeBucket copy() {
+        PageSizeBucket copy = new PageSizeBucket();
+        copy.setPages(pages);
+        copy.setErrors(errors);
+        copy.setItems(items);
+        copy.setBytes(bytes);
+        copy.setLatencyMs(latencyMs);
+        return copy;
+    }
+}
@@ -0,0 +1,21 @@
+package cz.csas.tutorials.api.model;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * DTO object to hold adaptive paging statistics of one upstream API
+ */
+@Data
+public class PageSizeStats {
+    int currentSize;
+    int maxSize;
+    long pages;
+    long errors;
+    double errorRate;
+    double avgLatencyMs;
+    long increases;
+    long decreases;
+    Map<Integer, PageSizeBucket> bySize;
+}
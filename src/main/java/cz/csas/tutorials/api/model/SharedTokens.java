@@ -0,0 +1,16 @@
+package cz.csas.tutorials.api.model;
+
+import lombok.Data;
+
+/**
+ * Tokens shared between application instances together with absolute expiry of the access token, so shared tokens
+ * outliving application restart are not reused after they expire.
+ */
+@Data
+public class SharedTokens {
+    TokenResponse tokens;
+    /**
+     * Epoch millis when access token expires, null if CSAS IDP has not sent expires_in.
+     */
+    Long expiresAt;
+}
@@ -0,0 +1,208 @@
+package cz.csas.tutorials.api.services;
+
+import cz.csas.tutorials.api.model.PageSizeBucket;
+import cz.csas.tutorials.api.model.PageSizeStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chooses page sizes for paginated upstream calls from observed latency, response size and error rate. Sizes are
+ * powers of two, so a walk can always switch to a smaller size (or to a bigger one once its offset is aligned)
+ * without skipping or repeating items. Every upstream API (key) is tuned separately.
+ */
+@Service
+@Slf4j
+public class AdaptivePageSizer {
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final double MAX_ERROR_RATE_FOR_GROWTH = 0.1;
+
+    private final int minSize;
+    private final int maxSize;
+    private final int initialSize;
+    private final long targetLatencyMs;
+    private final long maxResponseBytes;
+    private final Map<String, KeyState> states = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AdaptivePageSizer(Environment environment) {
+        this.minSize = Integer.highestOneBit(Math.max(1, environment.getRequiredProperty("pagingMinSize", Integer.class)));
+        this.maxSize = Math.max(minSize, Integer.highestOneBit(environment.getRequiredProperty("pagingMaxSize", Integer.class)));
+        this.initialSize = Math.min(maxSize, Math.max(minSize,
+                Integer.highestOneBit(environment.getRequiredProperty("pagingInitialSize", Integer.class))));
+        this.targetLatencyMs = environment.getRequiredProperty("pagingTargetLatencyMs", Long.class);
+        this.maxResponseBytes = environment.getRequiredProperty("pagingMaxResponseBytes", Long.class);
+    }
+
+    /**
+     * Returns page size to be used for next call. Size is never bigger than current target and always divides
+     * offset, so page number (offset / size) points exactly to the first item not fetched yet.
+     *
+     * @param key    upstream API
+     * @param offset number of items already fetched in current walk (sum of previously used sizes)
+     * @return page size
+     */
+    public int nextSize(String key, int offset) {
+        KeyState state = state(key);
+        int size;
+        synchronized (state) {
+            size = state.targetSize;
+        }
+        if (offset > 0) {
+            size = Math.min(size, Integer.lowestOneBit(offset));
+        }
+        return size;
+    }
+
+    /**
+     * Smallest page size. Failure at this size is not retried with smaller page.
+     *
+     * @return min page size
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Records successful page call and adapts target size: halves it when upstream is slow or response is too
+     * big, doubles it when a full page came back well within limits and upstream is not failing.
+     *
+     * @param key       upstream API
+     * @param size      page size used for the call
+     * @param latencyMs call duration
+     * @param bytes     response length
+     * @param items     number of items in response
+     */
+    public void recordSuccess(String key, int size, long latencyMs, long bytes, int items) {
+        KeyState state = state(key);
+        synchronized (state) {
+            state.bucket(size).record(latencyMs, bytes, items);
+            state.avgLatencyMs = ewma(state.avgLatencyMs, latencyMs, state.pages == 0);
+            state.errorRate = ewma(state.errorRate, 0, state.pages == 0 && state.errors == 0);
+            state.pages++;
+
+            if (latencyMs > targetLatencyMs || bytes > maxResponseBytes) {
+                decrease(key, state, size);
+            } else if (items >= size && latencyMs * 2 <= targetLatencyMs && bytes * 2 <= maxResponseBytes
+                    && state.errorRate < MAX_ERROR_RATE_FOR_GROWTH && size >= state.targetSize && size < state.maxSize) {
+                state.targetSize = size * 2;
+                state.increases++;
+                log.debug("Page size for " + key + " increased to " + state.targetSize);
+            }
+        }
+    }
+
+    /**
+     * Records failed page call (timeout, server error, rejected page) and halves target size.
+     *
+     * @param key       upstream API
+     * @param size      page size used for the call
+     * @param latencyMs call duration
+     */
+    public void recordError(String key, int size, long latencyMs) {
+        KeyState state = state(key);
+        synchronized (state) {
+            state.bucket(size).recordError(latencyMs);
+            state.errorRate = ewma(state.errorRate, 1, state.pages == 0 && state.errors == 0);
+            state.errors++;
+            decrease(key, state, size);
+        }
+    }
+
+    /**
+     * Records that upstream served smaller page than requested. Page sizes of this upstream API are limited to the
+     * served size (rounded down to power of two) from now on.
+     *
+     * @param key        upstream API
+     * @param servedSize page size actually served by upstream
+     * @throws IllegalStateException if served size is smaller than min page size
+     */
+    public void recordCap(String key, int servedSize) {
+        if (servedSize < minSize) {
+            throw new IllegalStateException("Upstream " + key + " serves pages of " + servedSize
+                    + " items only, which is less than min page size " + minSize);
+        }
+        KeyState state = state(key);
+        synchronized (state) {
+            state.maxSize = Math.min(state.maxSize, Integer.highestOneBit(servedSize));
+            if (state.targetSize > state.maxSize) {
+                state.targetSize = state.maxSize;
+                state.decreases++;
+                log.debug("Page size for " + key + " capped to " + state.targetSize);
+            }
+        }
+    }
+
+    /**
+     * Snapshot of chosen sizes and their effect for every upstream API.
+     *
+     * @return statistics by upstream API
+     */
+    public Map<String, PageSizeStats> getStats() {
+        Map<String, PageSizeStats> stats = new TreeMap<>();
+        for (Map.Entry<String, KeyState> entry : states.entrySet()) {
+            KeyState state = entry.getValue();
+            synchronized (state) {
+                PageSizeStats keyStats = new PageSizeStats();
+                keyStats.setCurrentSize(state.targetSize);
+                keyStats.setMaxSize(state.maxSize);
+                keyStats.setPages(state.pages);
+                keyStats.setErrors(state.errors);
+                keyStats.setErrorRate(state.errorRate);
+                keyStats.setAvgLatencyMs(state.avgLatencyMs);
+                keyStats.setIncreases(state.increases);
+                keyStats.setDecreases(state.decreases);
+                Map<Integer, PageSizeBucket> bySize = new TreeMap<>();
+                for (Map.Entry<Integer, PageSizeBucket> bucket : state.bySize.entrySet()) {
+                    bySize.put(bucket.getKey(), bucket.getValue().copy());
+                }
+                keyStats.setBySize(bySize);
+                stats.put(entry.getKey(), keyStats);
+            }
+        }
+        return stats;
+    }
+
+    private void decrease(String key, KeyState state, int size) {
+        int decreased = Math.max(minSize, size / 2);
+        if (decreased < state.targetSize) {
+            state.targetSize = decreased;
+            state.decreases++;
+            log.debug("Page size for " + key + " decreased to " + state.targetSize);
+        }
+    }
+
+    private double ewma(double average, double value, boolean first) {
+        return first ? value : average + EWMA_WEIGHT * (value - average);
+    }
+
+    private KeyState state(String key) {
+        return states.computeIfAbsent(key, k -> new KeyState(initialSize, maxSize));
+    }
+
+    private static class KeyState {
+        private final Map<Integer, PageSizeBucket> bySize = new TreeMap<>();
+        private int targetSize;
+        private int maxSize;
+        private long pages;
+        private long errors;
+        private double errorRate;
+        private double avgLatencyMs;
+        private long increases;
+        private long decreases;
+
+        private KeyState(int targetSize, int maxSize) {
+            this.targetSize = targetSize;
+            this.maxSize = maxSize;
+        }
+
+        private PageSizeBucket bucket(int size) {
+            return bySize.computeIfAbsent(size, s -> new PageSizeBucket());
+        }
+    }
+}
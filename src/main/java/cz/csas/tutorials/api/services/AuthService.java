@@ -25,11 +25,13 @@ public class AuthService {
     private final String state = "someValue";
     private final RestTemplate restTemplate;
     private final Environment environment;
+    private final TokenRefreshCoordinator tokenRefreshCoordinator;
 
     @Autowired
-    public AuthService(RestTemplate restTemplate, Environment environment) {
+    public AuthService(RestTemplate restTemplate, Environment environment, TokenRefreshCoordinator tokenRefreshCoordinator) {
         this.restTemplate = restTemplate;
         this.environment = environment;
+        this.tokenRefreshCoordinator = tokenRefreshCoordinator;
     }
 
     /**
@@ -54,6 +56,7 @@ public class AuthService {
 
     /**
      * Checks that received state is the one we sent to CSAS and exchange received code for for access and refresh tokens.
+     * Tokens are shared with other application instances.
      *
      * @param code          for exchanging for tokens
      * @param receivedState should match with the one we sent to CSAS
@@ -63,8 +66,11 @@ public class AuthService {
      */
     public TokenResponse obtainTokens(String code, String receivedState) throws ExchangeCodeForTokenException, StateNotFoundException {
         if (state.equals(receivedState)) {
-            return changeCodeForToken(code, environment.getRequiredProperty("clientId"), environment.getRequiredProperty("clientSecret"),
+            String clientId = environment.getRequiredProperty("clientId");
+            TokenResponse tokens = changeCodeForToken(code, clientId, environment.getRequiredProperty("clientSecret"),
                     environment.getRequiredProperty("authorizationRedirectUri"));
+            tokenRefreshCoordinator.publish(clientId, tokens);
+            return tokens;
         } else {
             throw new StateNotFoundException("Received state not found");
         }
@@ -101,14 +107,42 @@ public class AuthService {
     }
 
     /**
-     * Gets new access token based on refresh token.
+     * Gets new tokens based on refresh token. Refresh is coordinated by {@link TokenRefreshCoordinator}, so only one
+     * application instance calls CSAS IDP and the others get tokens it obtained.
+     *
+     * @param expiredAccessToken access token rejected by API, may be null
+     * @param refreshToken       refresh token obtained together with access token
+     * @param clientId           application id
+     * @param secret             secret obtained during app initialization at developers portal
+     * @return access token and refresh token (rotated one if CSAS IDP returned it)
+     * @throws ExpiredRefreshTokenException if refresh token has expired
+     */
+    public TokenResponse getNewTokens(String expiredAccessToken, String refreshToken, String clientId, String secret)
+            throws ExpiredRefreshTokenException {
+        return tokenRefreshCoordinator.refresh(clientId, expiredAccessToken, refreshToken,
+                currentRefreshToken -> requestNewTokens(currentRefreshToken, clientId, secret));
+    }
+
+    /**
+     * Gets tokens shared by another application instance through {@link TokenRefreshCoordinator}.
+     *
+     * @param clientId application id
+     * @return access token (may have expired) and refresh token, null if no instance has been authorized
+     */
+    public TokenResponse getSharedTokens(String clientId) {
+        return tokenRefreshCoordinator.current(clientId);
+    }
+
+    /**
+     * Calls CSAS IDP for new tokens based on refresh token.
      *
      * @param refreshToken refresh token obtained together with access token
      * @param clientId     application id
      * @param secret       secret obtained during app initialization at developers portal
-     * @return access token
+     * @return access token, refresh token if rotated
+     * @throws ExpiredRefreshTokenException if refresh token has expired
      */
-    public String getNewAccessToken(String refreshToken, String clientId, String secret) throws ExpiredRefreshTokenException {
+    private TokenResponse requestNewTokens(String refreshToken, String clientId, String secret) throws ExpiredRefreshTokenException {
         String tokenUrl = environment.getProperty("tokenUrl");
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
@@ -121,7 +155,7 @@ public class AuthService {
         HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(map, headers);
         try {
             ResponseEntity<TokenResponse> tokenEntity = restTemplate.postForEntity(tokenUrl, request, TokenResponse.class);
-            return tokenEntity.getBody().getAccessToken();
+            return tokenEntity.getBody();
         } catch (HttpClientErrorException ex) {
             if (HttpStatus.UNAUTHORIZED.equals(ex.getStatusCode())) {
                 throw new ExpiredRefreshTokenException("Refresh token has expired.");
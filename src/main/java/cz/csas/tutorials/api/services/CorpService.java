@@ -1,5 +1,6 @@
 package cz.csas.tutorials.api.services;
 
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import cz.csas.tutorials.api.model.ExpiredTokenException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
@@ -19,11 +20,13 @@ import java.util.Map;
 public class CorpService {
     private final RestTemplate restTemplate;
     private final Environment environment;
+    private final PageWalker pageWalker;
 
     @Autowired
-    public CorpService(RestTemplate restTemplate, Environment environment) {
+    public CorpService(RestTemplate restTemplate, Environment environment, PageWalker pageWalker) {
         this.restTemplate = restTemplate;
         this.environment = environment;
+        this.pageWalker = pageWalker;
     }
 
     /**
@@ -62,6 +65,35 @@ public class CorpService {
         }
     }
 
+    /**
+     * Calls corporate accounts API page by page with adaptive page size and returns all accounts
+     *
+     * @param token     access token
+     * @param webApiKey webapi key to connect to webapi
+     * @param sort      for results sorting
+     * @param order     asc/desc
+     * @return accounts - JSON array in String form
+     * @throws ExpiredTokenException if access token is expired
+     */
+    public String getAllCorpAccounts(String token, String webApiKey, String sort, String order) throws ExpiredTokenException {
+        return walkCorpAccounts(token, webApiKey, sort, order).toString();
+    }
+
+    /**
+     * Calls corporate accounts API page by page with adaptive page size
+     *
+     * @param token     access token
+     * @param webApiKey webapi key to connect to webapi
+     * @param sort      for results sorting
+     * @param order     asc/desc
+     * @return accounts from all pages
+     * @throws ExpiredTokenException if access token is expired
+     */
+    public ArrayNode walkCorpAccounts(String token, String webApiKey, String sort, String order) throws ExpiredTokenException {
+        return pageWalker.walk("corpAccounts", "accounts",
+                (page, size) -> getCorpAccounts(token, webApiKey, page, size, sort, order));
+    }
+
     /**
      * Calls corporate account balance
      *
@@ -137,4 +169,41 @@ public class CorpService {
         }
     }
 
+    /**
+     * Calls transaction history page by page with adaptive page size and returns all transactions in given time window
+     *
+     * @param id        account id
+     * @param token     access token
+     * @param webApiKey webapi key to connect to webapi
+     * @param sort      for results sorting
+     * @param order     asc/desc
+     * @param dateStart start of time window
+     * @param dateEnd   end of time window
+     * @return transactions - JSON array in String form
+     * @throws ExpiredTokenException if access token is expired
+     */
+    public String getAllTransHistory(String id, String token, String webApiKey, String sort, String order,
+                                     String dateStart, String dateEnd) throws ExpiredTokenException {
+        return walkTransHistory(id, token, webApiKey, sort, order, dateStart, dateEnd).toString();
+    }
+
+    /**
+     * Calls transaction history page by page with adaptive page size
+     *
+     * @param id        account id
+     * @param token     access token
+     * @param webApiKey webapi key to connect to webapi
+     * @param sort      for results sorting
+     * @param order     asc/desc
+     * @param dateStart start of time window
+     * @param dateEnd   end of time window
+     * @return transactions from all pages
+     * @throws ExpiredTokenException if access token is expired
+     */
+    public ArrayNode walkTransHistory(String id, String token, String webApiKey, String sort, String order,
+                                      String dateStart, String dateEnd) throws ExpiredTokenException {
+        return pageWalker.walk("corpTransHist", "transactions",
+                (page, size) -> getTransHistory(id, token, webApiKey, page, size, sort, order, dateStart, dateEnd));
+    }
+
 }
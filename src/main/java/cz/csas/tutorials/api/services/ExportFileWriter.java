@@ -0,0 +1,91 @@
+package cz.csas.tutorials.api.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes exported accounts to output file through large buffer and records account as done in checkpoint file only
+ * after its data has been flushed to disk. Output is truncated to the last checkpointed position on open, so data of
+ * accounts which were not checkpointed before crash is dropped and written again.
+ */
+class ExportFileWriter implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final Path checkpointFile;
+    private final List<String> pendingCheckpoints = new ArrayList<>();
+
+    ExportFileWriter(Path outputFile, Path checkpointFile, long position, int bufferBytes) throws IOException {
+        this.channel = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.channel.truncate(position);
+        this.channel.position(position);
+        this.buffer = ByteBuffer.allocateDirect(bufferBytes);
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Appends data not belonging to any account, e.g. CSV header.
+     *
+     * @param data bytes to write
+     * @throws IOException if writing fails
+     */
+    synchronized void write(byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int length = Math.min(buffer.remaining(), data.length - offset);
+            buffer.put(data, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Appends all data of one account. Account is checkpointed with next flush.
+     *
+     * @param accountId    account id
+     * @param data         exported transactions
+     * @param transactions number of exported transactions
+     * @throws IOException if writing fails
+     */
+    synchronized void writeAccount(String accountId, byte[] data, int transactions) throws IOException {
+        write(data);
+        pendingCheckpoints.add(accountId + "\t" + (channel.position() + buffer.position()) + "\t" + transactions);
+    }
+
+    /**
+     * Writes buffer to output file, forces it to disk and checkpoints accounts written completely.
+     *
+     * @throws IOException if writing fails
+     */
+    synchronized void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        channel.force(false);
+        if (!pendingCheckpoints.isEmpty()) {
+            Files.write(checkpointFile, pendingCheckpoints, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            pendingCheckpoints.clear();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
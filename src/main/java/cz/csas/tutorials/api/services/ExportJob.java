@@ -0,0 +1,326 @@
+package cz.csas.tutorials.api.services;
+
+import cz.csas.tutorials.api.model.ExportFormat;
+import cz.csas.tutorials.api.model.ExportJobState;
+import cz.csas.tutorials.api.model.ExportJobStatus;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of one transaction export job. Job parameters, last state and number of accounts are stored in job directory
+ * together with output and checkpoint files, so the job can be queried and resumed after application restart.
+ */
+@Slf4j
+class ExportJob {
+    private static final String JOB_FILE = "job.properties";
+    private static final String CHECKPOINT_FILE = "checkpoint.tsv";
+
+    private final String id;
+    private final Path directory;
+    private final ExportFormat format;
+    private final String dateStart;
+    private final String dateEnd;
+
+    private volatile ExportJobState state;
+    private volatile String message;
+    private volatile String stopMessage;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private String accessToken;
+    private String refreshToken;
+
+    private final AtomicInteger totalAccounts = new AtomicInteger();
+    private final AtomicInteger completedAccounts = new AtomicInteger();
+    private final AtomicInteger resumedAccounts = new AtomicInteger();
+    private final AtomicInteger failedAccounts = new AtomicInteger();
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong runTransactions = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong runBytes = new AtomicLong();
+
+    private ExportJob(String id, Path directory, ExportFormat format, String dateStart, String dateEnd) {
+        this.id = id;
+        this.directory = directory;
+        this.format = format;
+        this.dateStart = dateStart;
+        this.dateEnd = dateEnd;
+        this.state = ExportJobState.INTERRUPTED;
+    }
+
+    /**
+     * Creates job directory and stores job parameters.
+     */
+    static ExportJob create(String id, Path directory, ExportFormat format, String dateStart, String dateEnd) throws IOException {
+        Files.createDirectories(directory);
+        ExportJob job = new ExportJob(id, directory, format, dateStart, dateEnd);
+        job.store();
+        return job;
+    }
+
+    /**
+     * Loads job parameters, last state and progress from job directory. Job which was running when application
+     * stopped is INTERRUPTED.
+     */
+    static ExportJob load(String id, Path directory) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(directory.resolve(JOB_FILE), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        ExportJob job = new ExportJob(id, directory, ExportFormat.valueOf(properties.getProperty("format")),
+                properties.getProperty("dateStart"), properties.getProperty("dateEnd"));
+        job.readCheckpoint();
+        ExportJobState state = ExportJobState.valueOf(properties.getProperty("state", ExportJobState.INTERRUPTED.name()));
+        if (state != ExportJobState.RUNNING) {
+            job.state = state;
+            job.message = properties.getProperty("message");
+        }
+        job.totalAccounts.set(Integer.parseInt(properties.getProperty("totalAccounts", "0")));
+        job.failedAccounts.set(Integer.parseInt(properties.getProperty("failedAccounts", "0")));
+        return job;
+    }
+
+    /**
+     * Writes job parameters, state and number of accounts to job file. File is replaced atomically, so crash never
+     * leaves it incomplete.
+     */
+    private synchronized void store() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("format", format.name());
+        properties.setProperty("dateStart", dateStart);
+        properties.setProperty("dateEnd", dateEnd);
+        properties.setProperty("state", state.name());
+        if (message != null) {
+            properties.setProperty("message", message);
+        }
+        properties.setProperty("totalAccounts", String.valueOf(totalAccounts.get()));
+        properties.setProperty("failedAccounts", String.valueOf(failedAccounts.get()));
+        Path tempFile = directory.resolve(JOB_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            properties.store(writer, "transaction export " + id);
+        }
+        try {
+            Files.move(tempFile, directory.resolve(JOB_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tempFile, directory.resolve(JOB_FILE), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads checkpoint file and resets progress counters from it. Incomplete last line (written during crash) is
+     * ignored, the file itself is not modified.
+     *
+     * @return checkpoint with ids of accounts already exported and output position after them
+     * @throws IOException if checkpoint file can not be read
+     */
+    Checkpoint readCheckpoint() throws IOException {
+        Checkpoint checkpoint = new Checkpoint();
+        Path checkpointFile = getCheckpointFile();
+        long exportedTransactions = 0;
+        if (Files.exists(checkpointFile)) {
+            String content = new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8);
+            String[] lines = content.split("\n", -1);
+            // last element is empty when file ends with newline, otherwise it is a torn line
+            checkpoint.torn = !lines[lines.length - 1].isEmpty();
+            for (int i = 0; i < lines.length - 1; i++) {
+                String line = lines[i].trim();
+                String[] parts = line.split("\t");
+                try {
+                    if (parts.length != 3) {
+                        throw new NumberFormatException("Invalid checkpoint line " + line);
+                    }
+                    long position = Long.parseLong(parts[1]);
+                    exportedTransactions += Long.parseLong(parts[2]);
+                    checkpoint.position = Math.max(checkpoint.position, position);
+                } catch (NumberFormatException ex) {
+                    checkpoint.torn = true;
+                    continue;
+                }
+                checkpoint.accounts.add(parts[0]);
+                checkpoint.lines.add(line);
+            }
+        }
+        resumedAccounts.set(checkpoint.accounts.size());
+        completedAccounts.set(checkpoint.accounts.size());
+        failedAccounts.set(0);
+        transactions.set(exportedTransactions);
+        runTransactions.set(0);
+        bytesWritten.set(checkpoint.position);
+        runBytes.set(0);
+        return checkpoint;
+    }
+
+    /**
+     * Rewrites checkpoint file without its invalid lines, so new checkpoints are not appended to a torn line.
+     *
+     * @param checkpoint checkpoint read by {@link #readCheckpoint()}
+     * @throws IOException if checkpoint file can not be written
+     */
+    void repairCheckpoint(Checkpoint checkpoint) throws IOException {
+        if (checkpoint.torn) {
+            Files.write(getCheckpointFile(), checkpoint.lines, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Marks start of job run with tokens to be used for API calls.
+     */
+    synchronized void start(String accessToken, String refreshToken) {
+        this.accessToken = accessToken;
+        this.refreshToken = refreshToken;
+        this.state = ExportJobState.RUNNING;
+        this.message = null;
+        this.stopMessage = null;
+        this.startedAt = System.currentTimeMillis();
+        this.finishedAt = 0;
+    }
+
+    /**
+     * Sets final state of the run and stores it, so it is reported also after application restart.
+     */
+    synchronized void finish(ExportJobState state, String message) {
+        this.message = message;
+        this.finishedAt = System.currentTimeMillis();
+        this.state = state;
+        try {
+            store();
+        } catch (IOException ex) {
+            log.error("Can not store state of export job " + id, ex);
+        }
+    }
+
+    /**
+     * Asks running job to stop, accounts not started yet are skipped. Job stays RUNNING until all workers finish.
+     */
+    void requestPause(String message) {
+        this.stopMessage = message;
+    }
+
+    boolean isPauseRequested() {
+        return stopMessage != null;
+    }
+
+    String getStopMessage() {
+        return stopMessage;
+    }
+
+    /**
+     * @return true from {@link #start} until the run has drained its workers and closed output
+     */
+    boolean isRunning() {
+        return state == ExportJobState.RUNNING;
+    }
+
+    void accountExported(int accountTransactions, long bytes) {
+        completedAccounts.incrementAndGet();
+        transactions.addAndGet(accountTransactions);
+        runTransactions.addAndGet(accountTransactions);
+        bytesWritten.addAndGet(bytes);
+        runBytes.addAndGet(bytes);
+    }
+
+    void accountFailed() {
+        failedAccounts.incrementAndGet();
+    }
+
+    void setTotalAccounts(int total) throws IOException {
+        totalAccounts.set(total);
+        store();
+    }
+
+    int getFailedAccounts() {
+        return failedAccounts.get();
+    }
+
+    ExportJobState getState() {
+        return state;
+    }
+
+    synchronized String getAccessToken() {
+        return accessToken;
+    }
+
+    synchronized void setTokens(String accessToken, String refreshToken) {
+        this.accessToken = accessToken;
+        this.refreshToken = refreshToken;
+    }
+
+    synchronized String getRefreshToken() {
+        return refreshToken;
+    }
+
+    ExportFormat getFormat() {
+        return format;
+    }
+
+    String getDateStart() {
+        return dateStart;
+    }
+
+    String getDateEnd() {
+        return dateEnd;
+    }
+
+    Path getOutputFile() {
+        return directory.resolve("transactions." + format.getExtension());
+    }
+
+    Path getCheckpointFile() {
+        return directory.resolve(CHECKPOINT_FILE);
+    }
+
+    /**
+     * @return snapshot of job state, throughput is computed for current (or last) run only
+     */
+    ExportJobStatus getStatus() {
+        ExportJobStatus status = new ExportJobStatus();
+        status.setJobId(id);
+        status.setState(state);
+        status.setFormat(format);
+        status.setDateStart(dateStart);
+        status.setDateEnd(dateEnd);
+        status.setOutputFile(getOutputFile().toString());
+        status.setMessage(message);
+        status.setTotalAccounts(totalAccounts.get());
+        status.setCompletedAccounts(completedAccounts.get());
+        status.setResumedAccounts(resumedAccounts.get());
+        status.setFailedAccounts(failedAccounts.get());
+        status.setTransactions(transactions.get());
+        status.setBytesWritten(bytesWritten.get());
+        if (startedAt > 0) {
+            long elapsedMs = (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+            status.setElapsedMs(elapsedMs);
+            if (elapsedMs > 0) {
+                double seconds = elapsedMs / 1000.0;
+                status.setAccountsPerSecond((completedAccounts.get() - resumedAccounts.get()) / seconds);
+                status.setTransactionsPerSecond(runTransactions.get() / seconds);
+                status.setBytesPerSecond(runBytes.get() / seconds);
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Accounts exported in previous runs and output file position right after them.
+     */
+    static class Checkpoint {
+        final Set<String> accounts = new HashSet<>();
+        final List<String> lines = new ArrayList<>();
+        long position;
+        boolean torn;
+    }
+}
@@ -0,0 +1,339 @@
+package cz.csas.tutorials.api.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import cz.csas.tutorials.api.model.ExpiredRefreshTokenException;
+import cz.csas.tutorials.api.model.ExpiredTokenException;
+import cz.csas.tutorials.api.model.ExportFormat;
+import cz.csas.tutorials.api.model.ExportJobNotFoundException;
+import cz.csas.tutorials.api.model.ExportJobState;
+import cz.csas.tutorials.api.model.ExportJobStatus;
+import cz.csas.tutorials.api.model.TokenResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Exports transaction history of all corporate accounts to a file. Histories are pulled in parallel (bounded by
+ * exportParallelism) and written through {@link ExportFileWriter}. Every exported account is checkpointed, so a job
+ * stopped by crash, failed accounts or expired refresh token is resumed where it stopped.
+ */
+@Service
+@Slf4j
+public class ExportService {
+    private static final Pattern JOB_ID = Pattern.compile("[A-Za-z0-9-]+");
+    private static final String REFRESH_TOKEN_EXPIRED = "Refresh token has expired. Client has to be authorized and job resumed.";
+
+    private final CorpService corpService;
+    private final AuthService authService;
+    private final ObjectMapper objectMapper;
+    private final String webApiKey;
+    private final String clientId;
+    private final String clientSecret;
+    private final Path exportDir;
+    private final int parallelism;
+    private final int bufferBytes;
+    private final String[] csvColumns;
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService jobRunner = Executors.newCachedThreadPool();
+
+    @Autowired
+    public ExportService(CorpService corpService, AuthService authService, ObjectMapper objectMapper, Environment environment) {
+        this.corpService = corpService;
+        this.authService = authService;
+        this.objectMapper = objectMapper;
+        this.webApiKey = environment.getRequiredProperty("webApiKey");
+        this.clientId = environment.getRequiredProperty("clientId");
+        this.clientSecret = environment.getRequiredProperty("clientSecret");
+        this.exportDir = Paths.get(environment.getRequiredProperty("exportDir"));
+        this.parallelism = environment.getRequiredProperty("exportParallelism", Integer.class);
+        this.bufferBytes = environment.getRequiredProperty("exportBufferBytes", Integer.class);
+        this.csvColumns = environment.getRequiredProperty("exportCsvColumns").split(",");
+    }
+
+    /**
+     * Starts new export job in background.
+     *
+     * @param format       output format
+     * @param dateStart    start of time window
+     * @param dateEnd      end of time window
+     * @param accessToken  access token
+     * @param refreshToken refresh token used when access token expires during export
+     * @return status of started job
+     * @throws IOException if job directory can not be created
+     */
+    public ExportJobStatus startExport(ExportFormat format, String dateStart, String dateEnd,
+                                       String accessToken, String refreshToken) throws IOException {
+        String jobId = UUID.randomUUID().toString();
+        ExportJob job = ExportJob.create(jobId, exportDir.resolve(jobId), format, dateStart, dateEnd);
+        jobs.put(jobId, job);
+        submit(job, accessToken, refreshToken);
+        return job.getStatus();
+    }
+
+    /**
+     * Resumes paused, failed or interrupted job. Accounts already exported are skipped.
+     *
+     * @param jobId        job id
+     * @param accessToken  access token
+     * @param refreshToken refresh token used when access token expires during export
+     * @return status of resumed job
+     * @throws ExportJobNotFoundException if job does not exist
+     * @throws IllegalStateException      if previous run of the job has not finished yet
+     * @throws IOException                if job can not be loaded from job directory
+     */
+    public ExportJobStatus resumeExport(String jobId, String accessToken, String refreshToken)
+            throws ExportJobNotFoundException, IOException {
+        ExportJob job = getJob(jobId);
+        synchronized (job) {
+            if (job.isRunning()) {
+                throw new IllegalStateException("Export job " + jobId + " is still running.");
+            }
+            submit(job, accessToken, refreshToken);
+        }
+        return job.getStatus();
+    }
+
+    /**
+     * @param jobId job id
+     * @return state, progress and throughput of the job
+     * @throws ExportJobNotFoundException if job does not exist
+     * @throws IOException                if job can not be loaded from job directory
+     */
+    public ExportJobStatus getStatus(String jobId) throws ExportJobNotFoundException, IOException {
+        return getJob(jobId).getStatus();
+    }
+
+    /**
+     * @return statuses of jobs known since application start
+     */
+    public List<ExportJobStatus> getStatuses() {
+        List<ExportJobStatus> statuses = new ArrayList<>();
+        for (ExportJob job : jobs.values()) {
+            statuses.add(job.getStatus());
+        }
+        return statuses;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobRunner.shutdownNow();
+    }
+
+    private ExportJob getJob(String jobId) throws ExportJobNotFoundException, IOException {
+        if (jobId == null || !JOB_ID.matcher(jobId).matches()) {
+            throw new ExportJobNotFoundException("Export job " + jobId + " not found.");
+        }
+        ExportJob job = jobs.get(jobId);
+        if (job != null) {
+            return job;
+        }
+        Path directory = exportDir.resolve(jobId);
+        if (!Files.isDirectory(directory)) {
+            throw new ExportJobNotFoundException("Export job " + jobId + " not found.");
+        }
+        ExportJob loaded = ExportJob.load(jobId, directory);
+        ExportJob previous = jobs.putIfAbsent(jobId, loaded);
+        return previous != null ? previous : loaded;
+    }
+
+    private void submit(ExportJob job, String accessToken, String refreshToken) {
+        job.start(accessToken, refreshToken);
+        try {
+            jobRunner.submit(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            job.finish(ExportJobState.INTERRUPTED, "Application is shutting down.");
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the job. Job state is set only after all workers have finished and output has been closed, so the job can
+     * not be resumed while this run still writes.
+     */
+    private void run(ExportJob job) {
+        ExportJobState state = ExportJobState.FAILED;
+        String message = "Export failed.";
+        boolean interrupted = false;
+        try {
+            ExportJob.Checkpoint checkpoint = job.readCheckpoint();
+            job.repairCheckpoint(checkpoint);
+            try (ExportFileWriter writer = new ExportFileWriter(job.getOutputFile(), job.getCheckpointFile(),
+                    checkpoint.position, bufferBytes)) {
+                if (checkpoint.position == 0 && job.getFormat() == ExportFormat.CSV) {
+                    writer.write(csvHeader());
+                }
+
+                ArrayNode accounts = callWithToken(job, token ->
+                        corpService.walkCorpAccounts(token, webApiKey, null, null));
+                job.setTotalAccounts(accounts.size());
+                ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+                try {
+                    for (JsonNode account : accounts) {
+                        String accountId = account.path("id").asText();
+                        if (!accountId.isEmpty() && !checkpoint.accounts.contains(accountId)) {
+                            workers.submit(() -> exportAccount(job, writer, accountId));
+                        }
+                    }
+                } finally {
+                    interrupted = drain(workers);
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+                state = ExportJobState.INTERRUPTED;
+                message = "Export has been interrupted.";
+            } else if (job.isPauseRequested()) {
+                state = ExportJobState.PAUSED;
+                message = job.getStopMessage();
+            } else if (job.getFailedAccounts() > 0) {
+                message = job.getFailedAccounts() + " accounts failed, resume job to retry them.";
+            } else {
+                state = ExportJobState.COMPLETED;
+                message = null;
+            }
+        } catch (ExpiredRefreshTokenException e) {
+            state = ExportJobState.PAUSED;
+            message = REFRESH_TOKEN_EXPIRED;
+        } catch (IOException | RuntimeException | ExpiredTokenException e) {
+            log.error("Export job failed", e);
+            message = "Export failed: " + e;
+        } finally {
+            job.finish(state, message);
+        }
+        log.debug("Export job finished: " + job.getStatus());
+    }
+
+    /**
+     * Waits until all submitted accounts are finished. Interrupt cancels accounts not started yet, but still waits for
+     * the running ones, because they write to the output.
+     *
+     * @return true if waiting has been interrupted
+     */
+    private boolean drain(ExecutorService workers) {
+        workers.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+                workers.shutdownNow();
+            }
+        }
+        return interrupted;
+    }
+
+    private void exportAccount(ExportJob job, ExportFileWriter writer, String accountId) {
+        if (job.isPauseRequested() || Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        try {
+            ArrayNode transactions = callWithToken(job, token -> corpService.walkTransHistory(accountId, token, webApiKey,
+                    null, null, job.getDateStart(), job.getDateEnd()));
+            byte[] data = format(job.getFormat(), accountId, transactions);
+            writer.writeAccount(accountId, data, transactions.size());
+            job.accountExported(transactions.size(), data.length);
+        } catch (ExpiredRefreshTokenException e) {
+            job.requestPause(REFRESH_TOKEN_EXPIRED);
+        } catch (IOException | RuntimeException | ExpiredTokenException e) {
+            log.debug("Export of account " + accountId + " failed: " + e);
+            job.accountFailed();
+        }
+    }
+
+    private byte[] format(ExportFormat format, String accountId, ArrayNode transactions) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (JsonNode transaction : transactions) {
+            if (format == ExportFormat.NDJSON) {
+                ObjectNode line = objectMapper.createObjectNode();
+                line.put("accountId", accountId);
+                line.set("transaction", transaction);
+                objectMapper.writeValue(out, line);
+                out.write('\n');
+            } else {
+                StringBuilder line = new StringBuilder(csvValue(accountId));
+                for (String column : csvColumns) {
+                    line.append(',').append(csvValue(csvText(transaction.at("/" + column.trim().replace('.', '/')))));
+                }
+                out.write(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] csvHeader() {
+        StringBuilder header = new StringBuilder("accountId");
+        for (String column : csvColumns) {
+            header.append(',').append(csvValue(column.trim()));
+        }
+        return header.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String csvText(JsonNode value) {
+        if (value.isMissingNode() || value.isNull()) {
+            return "";
+        }
+        return value.isValueNode() ? value.asText() : value.toString();
+    }
+
+    private String csvValue(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    /**
+     * Calls API with job access token; when it is expired, refreshes it once for all workers (and through
+     * {@link AuthService} once for all application instances) and calls API again.
+     */
+    private <T> T callWithToken(ExportJob job, TokenCall<T> call) throws ExpiredTokenException, ExpiredRefreshTokenException {
+        String token = job.getAccessToken();
+        try {
+            return call.call(token);
+        } catch (ExpiredTokenException e) {
+            return call.call(refreshAccessToken(job, token));
+        }
+    }
+
+    private String refreshAccessToken(ExportJob job, String expiredToken) throws ExpiredRefreshTokenException {
+        synchronized (job) {
+            if (Objects.equals(expiredToken, job.getAccessToken())) {
+                log.debug("Refreshing access token of export job.");
+                TokenResponse tokens = authService.getNewTokens(expiredToken, job.getRefreshToken(), clientId, clientSecret);
+                job.setTokens(tokens.getAccessToken(), tokens.getRefreshToken());
+            }
+            return job.getAccessToken();
+        }
+    }
+
+    private interface TokenCall<T> {
+        T call(String token) throws ExpiredTokenException;
+    }
+}
@@ -0,0 +1,197 @@
+package cz.csas.tutorials.api.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.csas.tutorials.api.model.ExpiredRefreshTokenException;
+import cz.csas.tutorials.api.model.SharedTokens;
+import cz.csas.tutorials.api.model.TokenResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coordinates token refresh between instances running on one host through a shared file. The instance holding
+ * exclusive lock on the lock file next to it is the elected refresher; the others wait for the lock (at most
+ * lockTimeoutMs) and then find refreshed tokens in the file. Files are created readable by owner only and tokens are
+ * replaced atomically, so a crash never leaves the other instances without tokens. Tokens are stored with absolute
+ * expiry, because the file outlives application restarts.
+ */
+@Slf4j
+public class FileTokenRefreshCoordinator implements TokenRefreshCoordinator {
+    private static final TypeReference<Map<String, SharedTokens>> TOKENS_TYPE = new TypeReference<Map<String, SharedTokens>>() {
+    };
+    private static final long LOCK_RETRY_MS = 10;
+
+    private final Path file;
+    private final Path lockFile;
+    private final Path tempFile;
+    private final long lockTimeoutMs;
+    private final ReentrantLock instanceLock = new ReentrantLock();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public FileTokenRefreshCoordinator(Path file, long lockTimeoutMs) {
+        this.file = file;
+        this.lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        this.tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        this.lockTimeoutMs = lockTimeoutMs;
+    }
+
+    @Override
+    public TokenResponse refresh(String credential, String expiredAccessToken, String refreshToken,
+                                 TokenRefresher refresher) throws ExpiredRefreshTokenException {
+        return locked(() -> {
+            Map<String, SharedTokens> tokens = read();
+            SharedTokens shared = tokens.get(credential);
+            SharedTokens current = TokenRefreshCoordinator.refreshShared(shared, expiredAccessToken, refreshToken, refresher);
+            if (current == shared) {
+                log.debug("Access token has been refreshed by another instance.");
+            } else {
+                tokens.put(credential, current);
+                write(tokens);
+            }
+            return current.getTokens();
+        });
+    }
+
+    @Override
+    public void publish(String credential, TokenResponse tokens) {
+        try {
+            locked(() -> {
+                Map<String, SharedTokens> shared = read();
+                shared.put(credential, TokenRefreshCoordinator.share(tokens));
+                write(shared);
+                return tokens;
+            });
+        } catch (ExpiredRefreshTokenException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public TokenResponse current(String credential) {
+        try {
+            return locked(() -> {
+                SharedTokens shared = read().get(credential);
+                return shared != null ? shared.getTokens() : null;
+            });
+        } catch (ExpiredRefreshTokenException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Runs the call holding both the lock of this instance (file lock is held by the whole JVM) and the file lock.
+     * Waiting for the locks is bounded by lockTimeoutMs.
+     */
+    private TokenResponse locked(LockedCall call) throws ExpiredRefreshTokenException {
+        long deadline = System.currentTimeMillis() + lockTimeoutMs;
+        try {
+            if (!instanceLock.tryLock(lockTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Timed out waiting for token refresh of this instance.");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for token refresh.", ex);
+        }
+        try {
+            createPrivateFile(lockFile);
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE);
+                 FileLock lock = lockFile(channel, deadline)) {
+                return call.call();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Can not coordinate token refresh through " + file, ex);
+        } finally {
+            instanceLock.unlock();
+        }
+    }
+
+    private FileLock lockFile(FileChannel channel, long deadline) throws IOException {
+        while (true) {
+            try {
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    return lock;
+                }
+            } catch (OverlappingFileLockException ex) {
+                // another coordinator in this JVM holds the lock
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IllegalStateException("Timed out waiting for token refresh lock " + lockFile);
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_MS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for token refresh lock.", ex);
+            }
+        }
+    }
+
+    private Map<String, SharedTokens> read() throws IOException {
+        if (!Files.exists(file)) {
+            return new HashMap<>();
+        }
+        try {
+            return objectMapper.readValue(Files.readAllBytes(file), TOKENS_TYPE);
+        } catch (IOException ex) {
+            log.debug("Shared tokens file is corrupted, tokens will be refreshed: " + ex.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Writes tokens to temporary file and moves it over the shared file, readers see either old or new tokens.
+     */
+    private void write(Map<String, SharedTokens> tokens) throws IOException {
+        Files.deleteIfExists(tempFile);
+        createPrivateFile(tempFile);
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(objectMapper.writeValueAsBytes(tokens));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void createPrivateFile(Path path) throws IOException {
+        if (Files.exists(path)) {
+            return;
+        }
+        try {
+            if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } else {
+                Files.createFile(path);
+            }
+        } catch (FileAlreadyExistsException ex) {
+            // created by another instance meanwhile
+        }
+    }
+
+    private interface LockedCall {
+        TokenResponse call() throws IOException, ExpiredRefreshTokenException;
+    }
+}
@@ -0,0 +1,38 @@
+package cz.csas.tutorials.api.services;
+
+import cz.csas.tutorials.api.model.ExpiredRefreshTokenException;
+import cz.csas.tutorials.api.model.SharedTokens;
+import cz.csas.tutorials.api.model.TokenResponse;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Coordinates token refresh between threads of a single instance only. Used when no shared file is configured and as a
+ * stand-in for networked coordinators in tests.
+ */
+public class LocalTokenRefreshCoordinator implements TokenRefreshCoordinator {
+    private final Map<String, SharedTokens> tokens = new HashMap<>();
+
+    @Override
+    public synchronized TokenResponse refresh(String credential, String expiredAccessToken, String refreshToken,
+                                              TokenRefresher refresher) throws ExpiredRefreshTokenException {
+        SharedTokens shared = tokens.get(credential);
+        SharedTokens current = TokenRefreshCoordinator.refreshShared(shared, expiredAccessToken, refreshToken, refresher);
+        if (current != shared) {
+            tokens.put(credential, current);
+        }
+        return current.getTokens();
+    }
+
+    @Override
+    public synchronized void publish(String credential, TokenResponse tokens) {
+        this.tokens.put(credential, TokenRefreshCoordinator.share(tokens));
+    }
+
+    @Override
+    public synchronized TokenResponse current(String credential) {
+        SharedTokens shared = tokens.get(credential);
+        return shared != null ? shared.getTokens() : null;
+    }
+}
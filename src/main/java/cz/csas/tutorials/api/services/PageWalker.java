@@ -0,0 +1,184 @@
+package cz.csas.tutorials.api.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import cz.csas.tutorials.api.model.ExpiredTokenException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks all pages of paginated upstream API with page sizes chosen by {@link AdaptivePageSizer}.
+ */
+@Service
+@Slf4j
+public class PageWalker {
+    private static final List<HttpStatus> PAGE_SIZE_STATUSES = Arrays.asList(HttpStatus.REQUEST_TIMEOUT,
+            HttpStatus.PAYLOAD_TOO_LARGE, HttpStatus.TOO_MANY_REQUESTS);
+
+    private final AdaptivePageSizer pageSizer;
+    private final ObjectMapper objectMapper;
+    private final int maxPages;
+
+    @Autowired
+    public PageWalker(AdaptivePageSizer pageSizer, ObjectMapper objectMapper, Environment environment) {
+        this.pageSizer = pageSizer;
+        this.objectMapper = objectMapper;
+        this.maxPages = environment.getRequiredProperty("pagingMaxPages", Integer.class);
+    }
+
+    /**
+     * One page call of upstream API.
+     */
+    public interface PageFetcher {
+        /**
+         * @param page number of page
+         * @param size of page
+         * @return JSON response in String form
+         * @throws ExpiredTokenException if access token is expired
+         */
+        String fetch(String page, String size) throws ExpiredTokenException;
+    }
+
+    /**
+     * Fetches all pages and collects items from all of them. Page which failed because of timeout, server error or
+     * rejected size is fetched again with smaller page, failure with the smallest page is rethrown. Page capped by
+     * upstream to smaller size is fetched again with the served size. Upstream which ignores paging ends the walk
+     * either by returning all items on the first page or by returning the same page again.
+     *
+     * @param key        upstream API, page sizes are tuned separately for each one
+     * @param itemsField name of JSON array holding items in response, e.g. accounts
+     * @param fetcher    single page call
+     * @return items from all pages
+     * @throws ExpiredTokenException if access token is expired
+     * @throws IllegalStateException if upstream does not page properly or paging exceeds pagingMaxPages
+     */
+    public ArrayNode walk(String key, String itemsField, PageFetcher fetcher) throws ExpiredTokenException {
+        ArrayNode items = objectMapper.createArrayNode();
+        JsonNode previousPage = null;
+        int offset = 0;
+        for (int calls = 1; ; calls++) {
+            if (calls > maxPages) {
+                throw new IllegalStateException("Paging of " + key + " has not finished within " + maxPages + " pages.");
+            }
+            int size = pageSizer.nextSize(key, offset);
+            int page = offset / size;
+            long start = System.nanoTime();
+            String response;
+            try {
+                response = fetcher.fetch(String.valueOf(page), String.valueOf(size));
+            } catch (RestClientException ex) {
+                long latency = elapsedMs(start);
+                if (!isPageSizeError(ex)) {
+                    throw ex;
+                }
+                pageSizer.recordError(key, size, latency);
+                if (size <= pageSizer.getMinSize()) {
+                    throw ex;
+                }
+                log.debug("Page " + page + " of size " + size + " failed for " + key + ", retrying with smaller page.");
+                continue;
+            }
+            long latency = elapsedMs(start);
+
+            String body = response == null ? "{}" : response;
+            JsonNode json = parse(body);
+            JsonNode pageItems = json.path(itemsField);
+            int received = pageItems.isArray() ? pageItems.size() : 0;
+            if (received == 0) {
+                return items;
+            }
+            boolean morePages = hasMorePages(json, page, received, size);
+            if (received > size) {
+                if (offset == 0 && !morePages) {
+                    // upstream ignores paging (e.g. sandbox) and returned everything at once
+                    log.debug("Upstream " + key + " returned " + received + " items for page of size " + size
+                            + ", taking them as complete result.");
+                    items.addAll((ArrayNode) pageItems);
+                    return items;
+                }
+                throw new IllegalStateException("Upstream " + key + " returned " + received + " items for page of size "
+                        + size + ", paging is not supported.");
+            }
+            int servedSize = json.path("pageSize").asInt(size);
+            if (servedSize < size || (morePages && received < size)) {
+                // upstream has split items to smaller pages, so this page does not start at offset
+                pageSizer.recordCap(key, json.has("pageSize") ? servedSize : received);
+                log.debug("Page " + page + " of size " + size + " was capped by " + key + ", retrying with smaller page.");
+                continue;
+            }
+            if (pageItems.equals(previousPage)) {
+                log.debug("Upstream " + key + " returned page " + page + " same as the previous one, it ignores page number.");
+                return items;
+            }
+            pageSizer.recordSuccess(key, size, latency, body.getBytes(StandardCharsets.UTF_8).length, received);
+            items.addAll((ArrayNode) pageItems);
+            previousPage = pageItems;
+            offset += received;
+            if (!morePages) {
+                return items;
+            }
+        }
+    }
+
+    /**
+     * Uses paging metadata of CSAS response (pageCount, nextPage) when present, otherwise only a full page means
+     * there may be more items.
+     */
+    private boolean hasMorePages(JsonNode response, int page, int received, int size) {
+        if (response.hasNonNull("pageCount")) {
+            return page + 1 < response.get("pageCount").asInt();
+        }
+        if (response.has("nextPage")) {
+            return response.hasNonNull("nextPage");
+        }
+        return received == size;
+    }
+
+    /**
+     * Read timeout, server error or rejected size may be caused by too big page. Other I/O failures (connection
+     * refused, unknown host) are not.
+     */
+    private boolean isPageSizeError(RestClientException ex) {
+        if (ex instanceof HttpServerErrorException) {
+            return true;
+        }
+        if (ex instanceof ResourceAccessException) {
+            for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof SocketTimeoutException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return ex instanceof HttpClientErrorException
+                && PAGE_SIZE_STATUSES.contains(((HttpClientErrorException) ex).getStatusCode());
+    }
+
+    private long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private JsonNode parse(String response) {
+        try {
+            JsonNode node = objectMapper.readTree(response);
+            return node == null ? objectMapper.createObjectNode() : node;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Upstream response is not valid JSON", ex);
+        }
+    }
+}
@@ -16,11 +16,13 @@ import org.springframework.web.util.UriComponentsBuilder;
 public class PersService {
     private final RestTemplate restTemplate;
     private final Environment environment;
+    private final PageWalker pageWalker;
 
     @Autowired
-    public PersService(RestTemplate restTemplate, Environment environment) {
+    public PersService(RestTemplate restTemplate, Environment environment, PageWalker pageWalker) {
         this.restTemplate = restTemplate;
         this.environment = environment;
+        this.pageWalker = pageWalker;
     }
 
     /**
@@ -65,4 +67,22 @@ public class PersService {
         }
     }
 
+    /**
+     * Calls personal accounts API page by page with adaptive page size and returns all accounts
+     *
+     * @param token      access token
+     * @param webApiKey  webapi key to connect to webapi
+     * @param sort       for results sorting
+     * @param order      asc/desc
+     * @param type       An optional comma-separated list of requested product types. Example: CURRENT
+     * @param flagFilter An optional comma-separated list of flags that will be used for account filtering.
+     * @return personal accounts - JSON array in String form
+     * @throws ExpiredTokenException if access token is expired
+     */
+    public String getAllPersAccounts(String token, String webApiKey, String sort, String order,
+                                     String type, String flagFilter) throws ExpiredTokenException {
+        return pageWalker.walk("persAccounts", "accounts",
+                (page, size) -> getPersAccounts(token, webApiKey, page, size, sort, order, type, flagFilter)).toString();
+    }
+
 }
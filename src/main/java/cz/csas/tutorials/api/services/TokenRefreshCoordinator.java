@@ -0,0 +1,118 @@
+package cz.csas.tutorials.api.services;
+
+import cz.csas.tutorials.api.model.ExpiredRefreshTokenException;
+import cz.csas.tutorials.api.model.SharedTokens;
+import cz.csas.tutorials.api.model.TokenResponse;
+
+import java.util.Objects;
+
+/**
+ * Coordinates token refresh between application instances sharing one credential. Only one caller (across all
+ * instances) refreshes the tokens, the others get tokens it obtained. Implementations decide where tokens are shared,
+ * e.g. {@link FileTokenRefreshCoordinator} for instances on one host; networked implementations should be replaceable
+ * by {@link LocalTokenRefreshCoordinator} in tests.
+ */
+public interface TokenRefreshCoordinator {
+
+    /**
+     * Returns tokens newer than the expired access token. If shared access token is still the expired one, has reached
+     * its expiry (shared tokens may outlive application restart) or there is none, this caller is elected to refresh it and refreshed tokens are shared; otherwise shared tokens are returned
+     * without calling CSAS IDP.
+     *
+     * @param credential         credential key, e.g. client id
+     * @param expiredAccessToken access token rejected by API, may be null
+     * @param refreshToken       refresh token known to the caller, used when no tokens are shared yet
+     * @param refresher          call to CSAS IDP
+     * @return current tokens
+     * @throws ExpiredRefreshTokenException if refresh token has expired
+     */
+    TokenResponse refresh(String credential, String expiredAccessToken, String refreshToken, TokenRefresher refresher)
+            throws ExpiredRefreshTokenException;
+
+    /**
+     * Shares tokens obtained by authorization, so other instances can use them.
+     *
+     * @param credential credential key, e.g. client id
+     * @param tokens     access and refresh tokens
+     */
+    void publish(String credential, TokenResponse tokens);
+
+    /**
+     * Returns tokens shared for the credential, e.g. for an instance which has not been authorized itself. Access token
+     * may have expired, it is refreshed by {@link #refresh} when API rejects it.
+     *
+     * @param credential credential key, e.g. client id
+     * @return shared tokens, null if there are none
+     */
+    TokenResponse current(String credential);
+
+    /**
+     * Shared access token is treated as expired this long before its expiry, so it is not handed out just before
+     * CSAS API rejects it.
+     */
+    long EXPIRY_SKEW_MS = 30000;
+
+    /**
+     * Election common to all implementations, which only load and store shared tokens under their lock. Shared tokens
+     * newer than the expired access token and not expired yet are returned as they are; otherwise the refresher is
+     * called with the newest known refresh token and the result should be shared.
+     *
+     * @param shared             tokens shared for the credential, may be null
+     * @param expiredAccessToken access token rejected by API, may be null
+     * @param refreshToken       refresh token known to the caller, used when no tokens are shared yet
+     * @param refresher          call to CSAS IDP
+     * @return shared tokens, or new tokens if this caller has refreshed them
+     * @throws ExpiredRefreshTokenException if refresh token has expired
+     */
+    static SharedTokens refreshShared(SharedTokens shared, String expiredAccessToken, String refreshToken,
+                                      TokenRefresher refresher) throws ExpiredRefreshTokenException {
+        TokenResponse sharedTokens = shared != null ? shared.getTokens() : null;
+        if (sharedTokens != null && sharedTokens.getAccessToken() != null && !isExpired(shared)
+                && !Objects.equals(sharedTokens.getAccessToken(), expiredAccessToken)) {
+            return shared;
+        }
+        String currentRefreshToken = sharedTokens != null && sharedTokens.getRefreshToken() != null
+                ? sharedTokens.getRefreshToken() : refreshToken;
+        TokenResponse refreshed = refresher.refresh(currentRefreshToken);
+        if (refreshed.getRefreshToken() == null) {
+            refreshed.setRefreshToken(currentRefreshToken);
+        }
+        return share(refreshed);
+    }
+
+    /**
+     * Wraps tokens received from CSAS IDP with absolute expiry computed from expires_in.
+     *
+     * @param tokens access and refresh tokens
+     * @return tokens to be shared
+     */
+    static SharedTokens share(TokenResponse tokens) {
+        SharedTokens shared = new SharedTokens();
+        shared.setTokens(tokens);
+        if (tokens.getExpiresIn() != null) {
+            shared.setExpiresAt(System.currentTimeMillis() + tokens.getExpiresIn() * 1000);
+        }
+        return shared;
+    }
+
+    /**
+     * @param shared shared tokens
+     * @return true if shared access token has expired (or expires within {@link #EXPIRY_SKEW_MS}), false if its expiry
+     * is not known
+     */
+    static boolean isExpired(SharedTokens shared) {
+        return shared.getExpiresAt() != null && System.currentTimeMillis() >= shared.getExpiresAt() - EXPIRY_SKEW_MS;
+    }
+
+    /**
+     * Refresh call to CSAS IDP.
+     */
+    interface TokenRefresher {
+        /**
+         * @param refreshToken current refresh token
+         * @return new tokens, refresh token may be null if IDP has not rotated it
+         * @throws ExpiredRefreshTokenException if refresh token has expired
+         */
+        TokenResponse refresh(String refreshToken) throws ExpiredRefreshTokenException;
+    }
+}
@@ -0,0 +1,41 @@
+package cz.csas.tutorials.api;
+
+import cz.csas.tutorials.api.services.LocalTokenRefreshCoordinator;
+import cz.csas.tutorials.api.services.TokenRefreshCoordinator;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class TokenCoordinationAutoConfigurationTests {
+    private static final TokenRefreshCoordinator CUSTOM = new LocalTokenRefreshCoordinator();
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Autowired
+    private TokenRefreshCoordinator coordinator;
+
+    @Test
+    public void customCoordinatorReplacesDefault() {
+        assertEquals(1, context.getBeansOfType(TokenRefreshCoordinator.class).size());
+        assertSame(CUSTOM, coordinator);
+    }
+
+    @TestConfiguration
+    static class CustomCoordinatorConfiguration {
+        @Bean
+        public TokenRefreshCoordinator customTokenRefreshCoordinator() {
+            return CUSTOM;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package cz.csas.tutorials.api.services;
+
+import cz.csas.tutorials.api.model.PageSizeStats;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptivePageSizerTest {
+    private static final String KEY = "corpAccounts";
+
+    private AdaptivePageSizer pageSizer;
+
+    static MockEnvironment environment() {
+        return new MockEnvironment()
+                .withProperty("pagingMinSize", "1")
+                .withProperty("pagingMaxSize", "64")
+                .withProperty("pagingInitialSize", "16")
+                .withProperty("pagingTargetLatencyMs", "1000")
+                .withProperty("pagingMaxResponseBytes", "10000")
+                .withProperty("pagingMaxPages", "100");
+    }
+
+    @Before
+    public void setUp() {
+        pageSizer = new AdaptivePageSizer(environment());
+    }
+
+    @Test
+    public void nextSizeAlwaysDividesOffset() {
+        Random random = new Random(42);
+        int offset = 0;
+        for (int i = 0; i < 1000; i++) {
+            int size = pageSizer.nextSize(KEY, offset);
+            assertEquals(Integer.highestOneBit(size), size);
+            assertEquals(0, offset % size);
+            switch (random.nextInt(3)) {
+                case 0:
+                    pageSizer.recordSuccess(KEY, size, 10, 100, size);
+                    break;
+                case 1:
+                    pageSizer.recordSuccess(KEY, size, 5000, 100, size);
+                    break;
+                default:
+                    pageSizer.recordError(KEY, size, 10);
+            }
+            offset += size;
+        }
+    }
+
+    @Test
+    public void halvesOnSlowPage() {
+        pageSizer.recordSuccess(KEY, 16, 1500, 100, 16);
+        assertEquals(8, pageSizer.nextSize(KEY, 0));
+    }
+
+    @Test
+    public void halvesOnOversizedPage() {
+        pageSizer.recordSuccess(KEY, 16, 10, 20000, 16);
+        assertEquals(8, pageSizer.nextSize(KEY, 0));
+    }
+
+    @Test
+    public void halvesOnError() {
+        pageSizer.recordError(KEY, 16, 10);
+        assertEquals(8, pageSizer.nextSize(KEY, 0));
+    }
+
+    @Test
+    public void neverGoesBelowMinSize() {
+        for (int i = 0; i < 10; i++) {
+            pageSizer.recordError(KEY, pageSizer.nextSize(KEY, 0), 10);
+        }
+        assertEquals(1, pageSizer.nextSize(KEY, 0));
+    }
+
+    @Test
+    public void growsOnFastFullPageUpToMaxSize() {
+        pageSizer.recordSuccess(KEY, 16, 10, 100, 10);
+        assertEquals(16, pageSizer.nextSize(KEY, 0));
+        for (int i = 0; i < 5; i++) {
+            int size = pageSizer.nextSize(KEY, 0);
+            pageSizer.recordSuccess(KEY, size, 10, 100, size);
+        }
+        assertEquals(64, pageSizer.nextSize(KEY, 0));
+    }
+
+    @Test
+    public void growsOnlyBelowErrorRateThreshold() {
+        pageSizer.recordError(KEY, 16, 10);
+        for (int i = 0; i < 10; i++) {
+            pageSizer.recordSuccess(KEY, 8, 10, 100, 8);
+            assertEquals(8, pageSizer.nextSize(KEY, 0));
+        }
+        pageSizer.recordSuccess(KEY, 8, 10, 100, 8);
+        assertEquals(16, pageSizer.nextSize(KEY, 0));
+    }
+
+    @Test
+    public void capLimitsGrowth() {
+        pageSizer.recordCap(KEY, 10);
+        assertEquals(8, pageSizer.nextSize(KEY, 0));
+        pageSizer.recordSuccess(KEY, 8, 10, 100, 8);
+        assertEquals(8, pageSizer.nextSize(KEY, 0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void capBelowMinSizeFails() {
+        pageSizer.recordCap(KEY, 0);
+    }
+
+    @Test
+    public void statsReportSizesAndTheirEffect() {
+        pageSizer.recordSuccess(KEY, 16, 100, 1000, 16);
+        pageSizer.recordError(KEY, 32, 50);
+
+        PageSizeStats stats = pageSizer.getStats().get(KEY);
+        assertEquals(1, stats.getPages());
+        assertEquals(1, stats.getErrors());
+        assertEquals(16, stats.getBySize().get(16).getItems());
+        assertEquals(160.0, stats.getBySize().get(16).getItemsPerSecond(), 0.001);
+        assertEquals(1, stats.getBySize().get(32).getErrors());
+    }
+}
@@ -0,0 +1,99 @@
+package cz.csas.tutorials.api.services;
+
+import cz.csas.tutorials.api.model.ExportFormat;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExportFileWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExportJob job;
+
+    @Before
+    public void setUp() throws Exception {
+        job = ExportJob.create("job", folder.getRoot().toPath().resolve("job"), ExportFormat.NDJSON,
+                "2016-09-04T00:00:00+01:00", "2018-09-04T00:00:00+01:00");
+    }
+
+    @Test
+    public void checkpointsAccountsOnlyAfterFlush() throws Exception {
+        try (ExportFileWriter writer = new ExportFileWriter(job.getOutputFile(), job.getCheckpointFile(), 0, 4)) {
+            writer.writeAccount("a", bytes("aaaaaa\n"), 1);
+            writer.writeAccount("b", bytes("bb\n"), 2);
+            assertEquals(new HashSet<>(Arrays.asList("a")), job.readCheckpoint().accounts);
+        }
+
+        ExportJob.Checkpoint checkpoint = job.readCheckpoint();
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), checkpoint.accounts);
+        assertEquals(10, checkpoint.position);
+        assertEquals("aaaaaa\nbb\n", read());
+        assertEquals(3, job.getStatus().getTransactions());
+    }
+
+    @Test
+    public void truncatesOutputToLastCheckpoint() throws Exception {
+        try (ExportFileWriter writer = new ExportFileWriter(job.getOutputFile(), job.getCheckpointFile(), 0, 1024)) {
+            writer.writeAccount("a", bytes("a1\n"), 1);
+        }
+        // data of account b reached the disk, but its checkpoint did not
+        Files.write(job.getOutputFile(), bytes("b1\nb2"), StandardOpenOption.APPEND);
+
+        ExportJob.Checkpoint checkpoint = job.readCheckpoint();
+        try (ExportFileWriter writer = new ExportFileWriter(job.getOutputFile(), job.getCheckpointFile(),
+                checkpoint.position, 1024)) {
+            writer.writeAccount("b", bytes("b1\nb2\n"), 2);
+        }
+
+        assertEquals("a1\nb1\nb2\n", read());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), job.readCheckpoint().accounts);
+    }
+
+    @Test
+    public void ignoresTornCheckpointLineWithoutRewritingOnRead() throws Exception {
+        try (ExportFileWriter writer = new ExportFileWriter(job.getOutputFile(), job.getCheckpointFile(), 0, 1024)) {
+            writer.writeAccount("a", bytes("a1\n"), 1);
+        }
+        Files.write(job.getCheckpointFile(), bytes("b\t9"), StandardOpenOption.APPEND);
+        byte[] torn = Files.readAllBytes(job.getCheckpointFile());
+
+        ExportJob loaded = ExportJob.load("job", folder.getRoot().toPath().resolve("job"));
+        assertEquals(1, loaded.getStatus().getCompletedAccounts());
+        ExportJob.Checkpoint checkpoint = loaded.readCheckpoint();
+        assertTrue(checkpoint.torn);
+        assertEquals(new HashSet<>(Arrays.asList("a")), checkpoint.accounts);
+        assertEquals(3, checkpoint.position);
+        assertArrayEquals(torn, Files.readAllBytes(job.getCheckpointFile()));
+
+        loaded.repairCheckpoint(checkpoint);
+        try (ExportFileWriter writer = new ExportFileWriter(job.getOutputFile(), job.getCheckpointFile(),
+                checkpoint.position, 1024)) {
+            writer.writeAccount("b", bytes("b1\n"), 1);
+        }
+        ExportJob.Checkpoint repaired = loaded.readCheckpoint();
+        assertFalse(repaired.torn);
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), repaired.accounts);
+        assertEquals(6, repaired.position);
+    }
+
+    private byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String read() throws Exception {
+        return new String(Files.readAllBytes(job.getOutputFile()), StandardCharsets.UTF_8);
+    }
+}
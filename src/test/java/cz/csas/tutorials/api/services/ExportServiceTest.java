@@ -0,0 +1,146 @@
+package cz.csas.tutorials.api.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import cz.csas.tutorials.api.model.ExpiredRefreshTokenException;
+import cz.csas.tutorials.api.model.ExpiredTokenException;
+import cz.csas.tutorials.api.model.ExportFormat;
+import cz.csas.tutorials.api.model.ExportJobState;
+import cz.csas.tutorials.api.model.ExportJobStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ExportServiceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private CorpService corpService;
+    private AuthService authService;
+    private MockEnvironment environment;
+    private ExportService exportService;
+
+    @Before
+    public void setUp() throws Throwable {
+        corpService = mock(CorpService.class);
+        authService = mock(AuthService.class);
+        environment = new MockEnvironment()
+                .withProperty("webApiKey", "key")
+                .withProperty("clientId", "client")
+                .withProperty("clientSecret", "secret")
+                .withProperty("exportDir", folder.getRoot().getAbsolutePath())
+                .withProperty("exportParallelism", "1")
+                .withProperty("exportBufferBytes", "16")
+                .withProperty("exportCsvColumns", "id,amount.value,description");
+        exportService = new ExportService(corpService, authService, objectMapper, environment);
+        when(corpService.walkCorpAccounts(any(), any(), any(), any()))
+                .thenReturn(json("[{\"id\":\"a\"},{\"id\":\"b\"},{\"id\":\"c\"}]"));
+        when(corpService.walkTransHistory(eq("a"), any(), any(), any(), any(), any(), any()))
+                .thenReturn(json("[{\"id\":\"a1\",\"amount\":{\"value\":10},\"description\":\"rent, \\\"May\\\"\"}]"));
+        when(corpService.walkTransHistory(eq("c"), any(), any(), any(), any(), any(), any()))
+                .thenReturn(json("[]"));
+    }
+
+    @After
+    public void tearDown() {
+        exportService.shutdown();
+    }
+
+    @Test
+    public void resumeExportsOnlyFailedAccounts() throws Throwable {
+        when(corpService.walkTransHistory(eq("b"), any(), any(), any(), any(), any(), any()))
+                .thenThrow(new IllegalStateException("upstream failure"))
+                .thenReturn(json("[{\"id\":\"b1\",\"amount\":{\"value\":20}}]"));
+
+        String jobId = exportService.startExport(ExportFormat.CSV, "from", "to", "access", "refresh").getJobId();
+        ExportJobStatus status = await(jobId);
+        assertEquals(ExportJobState.FAILED, status.getState());
+        assertEquals(2, status.getCompletedAccounts());
+        assertEquals(1, status.getFailedAccounts());
+
+        exportService.resumeExport(jobId, "access", "refresh");
+        status = await(jobId);
+        assertEquals(ExportJobState.COMPLETED, status.getState());
+        assertEquals(3, status.getCompletedAccounts());
+        assertEquals(2, status.getResumedAccounts());
+        assertEquals(2, status.getTransactions());
+        verify(corpService, times(1)).walkTransHistory(eq("a"), any(), any(), any(), any(), any(), any());
+        verify(corpService, times(2)).walkTransHistory(eq("b"), any(), any(), any(), any(), any(), any());
+        verify(corpService, times(1)).walkTransHistory(eq("c"), any(), any(), any(), any(), any(), any());
+        assertEquals("accountId,id,amount.value,description\n"
+                + "a,a1,10,\"rent, \"\"May\"\"\"\n"
+                + "b,b1,20,\n", read(status));
+    }
+
+    @Test
+    public void jobStateIsRestoredAfterRestart() throws Throwable {
+        when(corpService.walkTransHistory(eq("b"), any(), any(), any(), any(), any(), any()))
+                .thenReturn(json("[{\"id\":\"b1\"}]"));
+
+        String jobId = exportService.startExport(ExportFormat.NDJSON, "from", "to", "access", "refresh").getJobId();
+        assertEquals(ExportJobState.COMPLETED, await(jobId).getState());
+        exportService.shutdown();
+
+        exportService = new ExportService(corpService, authService, objectMapper, environment);
+        ExportJobStatus status = exportService.getStatus(jobId);
+        assertEquals(ExportJobState.COMPLETED, status.getState());
+        assertEquals(3, status.getTotalAccounts());
+        assertEquals(3, status.getCompletedAccounts());
+        assertEquals(0, status.getFailedAccounts());
+    }
+
+    @Test
+    public void expiredRefreshTokenPausesJob() throws Throwable {
+        when(corpService.walkTransHistory(eq("b"), eq("access"), any(), any(), any(), any(), any()))
+                .thenThrow(new ExpiredTokenException("Token has expired or is invalid."));
+        when(authService.getNewTokens(any(), any(), any(), any()))
+                .thenThrow(new ExpiredRefreshTokenException("Refresh token has expired."));
+        when(corpService.walkTransHistory(eq("b"), eq("access2"), any(), any(), any(), any(), any()))
+                .thenReturn(json("[{\"id\":\"b1\"}]"));
+
+        String jobId = exportService.startExport(ExportFormat.NDJSON, "from", "to", "access", "refresh").getJobId();
+        ExportJobStatus status = await(jobId);
+        assertEquals(ExportJobState.PAUSED, status.getState());
+        assertEquals(0, status.getFailedAccounts());
+
+        exportService.resumeExport(jobId, "access2", "refresh2");
+        status = await(jobId);
+        assertEquals(ExportJobState.COMPLETED, status.getState());
+        assertEquals(3, status.getCompletedAccounts());
+        assertEquals(2, read(status).split("\n").length);
+    }
+
+    private ExportJobStatus await(String jobId) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        ExportJobStatus status = exportService.getStatus(jobId);
+        while (status.getState() == ExportJobState.RUNNING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            status = exportService.getStatus(jobId);
+        }
+        return status;
+    }
+
+    private ArrayNode json(String value) throws Exception {
+        return (ArrayNode) objectMapper.readTree(value);
+    }
+
+    private String read(ExportJobStatus status) throws Exception {
+        return new String(Files.readAllBytes(Paths.get(status.getOutputFile())), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,172 @@
+package cz.csas.tutorials.api.services;
+
+import cz.csas.tutorials.api.model.ExpiredRefreshTokenException;
+import cz.csas.tutorials.api.model.TokenResponse;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cz.csas.tutorials.api.services.LocalTokenRefreshCoordinatorTest.tokens;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class FileTokenRefreshCoordinatorTest {
+    private static final String TOKEN_URL = "http://localhost/token";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private MockRestServiceServer idp;
+    private AuthService first;
+    private AuthService second;
+
+    @Before
+    public void setUp() {
+        file = folder.getRoot().toPath().resolve("tokens.json");
+        RestTemplate restTemplate = new RestTemplate();
+        idp = MockRestServiceServer.bindTo(restTemplate).build();
+        MockEnvironment environment = new MockEnvironment().withProperty("tokenUrl", TOKEN_URL);
+        first = new AuthService(restTemplate, environment, new FileTokenRefreshCoordinator(file, 5000));
+        second = new AuthService(restTemplate, environment, new FileTokenRefreshCoordinator(file, 5000));
+    }
+
+    @Test
+    public void secondInstanceGetsTokensRefreshedByFirst() throws Exception {
+        idp.expect(ExpectedCount.once(), requestTo(TOKEN_URL))
+                .andExpect(content().string(containsString("refresh_token=r1")))
+                .andRespond(withSuccess("{\"access_token\":\"a2\",\"refresh_token\":\"r2\"}", MediaType.APPLICATION_JSON));
+
+        TokenResponse firstTokens = first.getNewTokens("a1", "r1", "client", "secret");
+        TokenResponse secondTokens = second.getNewTokens("a1", "r1", "client", "secret");
+
+        idp.verify();
+        assertEquals("a2", firstTokens.getAccessToken());
+        assertEquals("a2", secondTokens.getAccessToken());
+        assertEquals("r2", secondTokens.getRefreshToken());
+    }
+
+    @Test
+    public void rotatedRefreshTokenIsUsedByOtherInstance() throws Exception {
+        idp.expect(ExpectedCount.once(), requestTo(TOKEN_URL))
+                .andExpect(content().string(containsString("refresh_token=r1")))
+                .andRespond(withSuccess("{\"access_token\":\"a2\",\"refresh_token\":\"r2\"}", MediaType.APPLICATION_JSON));
+        idp.expect(ExpectedCount.once(), requestTo(TOKEN_URL))
+                .andExpect(content().string(containsString("refresh_token=r2")))
+                .andRespond(withSuccess("{\"access_token\":\"a3\"}", MediaType.APPLICATION_JSON));
+
+        first.getNewTokens("a1", "r1", "client", "secret");
+        // second instance still holds the original tokens
+        TokenResponse secondTokens = second.getNewTokens("a2", "r1", "client", "secret");
+        TokenResponse firstTokens = first.getNewTokens("a2", "r2", "client", "secret");
+
+        idp.verify();
+        assertEquals("a3", secondTokens.getAccessToken());
+        assertEquals("r2", secondTokens.getRefreshToken());
+        assertEquals("a3", firstTokens.getAccessToken());
+    }
+
+    @Test
+    public void expiredSharedTokensAreRefreshedAfterRestart() throws Exception {
+        TokenResponse expired = tokens("a1", "r1");
+        expired.setExpiresIn(0L);
+        new FileTokenRefreshCoordinator(file, 5000).publish("client", expired);
+        idp.expect(ExpectedCount.once(), requestTo(TOKEN_URL))
+                .andExpect(content().string(containsString("refresh_token=r1")))
+                .andRespond(withSuccess("{\"access_token\":\"a2\",\"expires_in\":3600}", MediaType.APPLICATION_JSON));
+
+        TokenResponse firstTokens = first.getNewTokens(null, null, "client", "secret");
+        TokenResponse secondTokens = second.getNewTokens(null, null, "client", "secret");
+
+        idp.verify();
+        assertEquals("a2", firstTokens.getAccessToken());
+        assertEquals("a2", secondTokens.getAccessToken());
+        assertEquals("r1", secondTokens.getRefreshToken());
+    }
+
+    @Test
+    public void instanceWithoutTokensGetsSharedOnes() throws Exception {
+        assertNull(second.getSharedTokens("client"));
+
+        new FileTokenRefreshCoordinator(file, 5000).publish("client", tokens("a1", "r1"));
+
+        TokenResponse shared = second.getSharedTokens("client");
+        assertEquals("a1", shared.getAccessToken());
+        assertEquals("r1", shared.getRefreshToken());
+    }
+
+    @Test
+    public void expiredRefreshTokenReleasesLock() throws Exception {
+        idp.expect(ExpectedCount.once(), requestTo(TOKEN_URL)).andRespond(withStatus(HttpStatus.UNAUTHORIZED));
+        idp.expect(ExpectedCount.once(), requestTo(TOKEN_URL))
+                .andRespond(withSuccess("{\"access_token\":\"a2\",\"refresh_token\":\"r2\"}", MediaType.APPLICATION_JSON));
+
+        try {
+            first.getNewTokens("a1", "r1", "client", "secret");
+            fail("Expired refresh token should be reported");
+        } catch (ExpiredRefreshTokenException ex) {
+            assertEquals("a2", second.getNewTokens("a1", "r1", "client", "secret").getAccessToken());
+        }
+        idp.verify();
+    }
+
+    @Test
+    public void concurrentInstancesRefreshOnce() throws Exception {
+        List<FileTokenRefreshCoordinator> coordinators = new ArrayList<>();
+        coordinators.add(new FileTokenRefreshCoordinator(file, 5000));
+        coordinators.add(new FileTokenRefreshCoordinator(file, 5000));
+        AtomicInteger refreshes = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<TokenResponse>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                FileTokenRefreshCoordinator coordinator = coordinators.get(i % 2);
+                Callable<TokenResponse> call = () -> coordinator.refresh("client", "a1", "r1", refreshToken -> {
+                    refreshes.incrementAndGet();
+                    return tokens("a2", "r2");
+                });
+                results.add(executor.submit(call));
+            }
+            for (Future<TokenResponse> result : results) {
+                assertEquals("a2", result.get().getAccessToken());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, refreshes.get());
+    }
+
+    @Test
+    public void sharedFileIsReadableByOwnerOnly() throws Exception {
+        Assume.assumeTrue(file.getFileSystem().supportedFileAttributeViews().contains("posix"));
+
+        new FileTokenRefreshCoordinator(file, 5000).publish("client", tokens("a1", "r1"));
+
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(file));
+    }
+}
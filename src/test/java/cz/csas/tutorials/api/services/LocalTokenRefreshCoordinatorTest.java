@@ -0,0 +1,100 @@
+package cz.csas.tutorials.api.services;
+
+import cz.csas.tutorials.api.model.TokenResponse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalTokenRefreshCoordinatorTest {
+    private final LocalTokenRefreshCoordinator coordinator = new LocalTokenRefreshCoordinator();
+
+    static TokenResponse tokens(String accessToken, String refreshToken) {
+        TokenResponse tokens = new TokenResponse();
+        tokens.setAccessToken(accessToken);
+        tokens.setRefreshToken(refreshToken);
+        return tokens;
+    }
+
+    @Test
+    public void concurrentCallersWithSameExpiredTokenRefreshOnce() throws Exception {
+        AtomicInteger refreshes = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<TokenResponse>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Callable<TokenResponse> call = () -> coordinator.refresh("client", "a1", "r1", refreshToken -> {
+                    refreshes.incrementAndGet();
+                    slowDown();
+                    return tokens("a2", "r2");
+                });
+                results.add(executor.submit(call));
+            }
+            for (Future<TokenResponse> result : results) {
+                assertEquals("a2", result.get().getAccessToken());
+                assertEquals("r2", result.get().getRefreshToken());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, refreshes.get());
+    }
+
+    @Test
+    public void usesRotatedRefreshToken() throws Exception {
+        coordinator.refresh("client", "a1", "r1", refreshToken -> tokens("a2", "r2"));
+
+        List<String> used = new ArrayList<>();
+        TokenResponse refreshed = coordinator.refresh("client", "a2", "r1", refreshToken -> {
+            used.add(refreshToken);
+            return tokens("a3", null);
+        });
+
+        assertEquals("r2", used.get(0));
+        assertEquals("a3", refreshed.getAccessToken());
+        assertEquals("r2", refreshed.getRefreshToken());
+    }
+
+    @Test
+    public void returnsPublishedTokensWithoutRefresh() throws Exception {
+        coordinator.publish("client", tokens("a1", "r1"));
+
+        TokenResponse current = coordinator.refresh("client", null, null, refreshToken -> {
+            throw new IllegalStateException("Tokens should not be refreshed");
+        });
+
+        assertEquals("a1", current.getAccessToken());
+    }
+
+    @Test
+    public void refreshesExpiredSharedTokens() throws Exception {
+        TokenResponse expired = tokens("a1", "r1");
+        expired.setExpiresIn(0L);
+        coordinator.publish("client", expired);
+
+        List<String> used = new ArrayList<>();
+        TokenResponse current = coordinator.refresh("client", null, null, refreshToken -> {
+            used.add(refreshToken);
+            return tokens("a2", null);
+        });
+
+        assertEquals("r1", used.get(0));
+        assertEquals("a2", current.getAccessToken());
+        assertEquals("r1", current.getRefreshToken());
+    }
+
+    private static void slowDown() {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
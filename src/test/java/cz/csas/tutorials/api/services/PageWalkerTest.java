@@ -0,0 +1,193 @@
+package cz.csas.tutorials.api.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PageWalkerTest {
+    private static final String KEY = "corpAccounts";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private AdaptivePageSizer pageSizer;
+    private PageWalker pageWalker;
+
+    @Before
+    public void setUp() {
+        MockEnvironment environment = AdaptivePageSizerTest.environment();
+        pageSizer = new AdaptivePageSizer(environment);
+        pageWalker = new PageWalker(pageSizer, objectMapper, environment);
+    }
+
+    @Test
+    public void walksAllItemsWithoutMetadata() throws Throwable {
+        ArrayNode items = pageWalker.walk(KEY, "accounts",
+                (page, size) -> page(Integer.parseInt(page), Integer.parseInt(size), 100).toString());
+        assertItems(100, items);
+    }
+
+    @Test
+    public void stopsOnPageCount() throws Throwable {
+        List<Integer> sizes = new ArrayList<>();
+        ArrayNode items = pageWalker.walk(KEY, "accounts", (page, size) -> {
+            sizes.add(Integer.parseInt(size));
+            return withPageCount(page(Integer.parseInt(page), Integer.parseInt(size), 48), Integer.parseInt(size), 48).toString();
+        });
+        assertItems(48, items);
+        assertEquals(Arrays.asList(16, 16, 32), sizes);
+    }
+
+    @Test
+    public void refetchesPageCappedByUpstream() throws Throwable {
+        ArrayNode items = pageWalker.walk(KEY, "accounts", (page, size) -> {
+            int servedSize = Math.min(5, Integer.parseInt(size));
+            ObjectNode response = page(Integer.parseInt(page), servedSize, 100);
+            response.put("pageSize", servedSize);
+            return withPageCount(response, servedSize, 100).toString();
+        });
+        assertItems(100, items);
+        assertEquals(4, pageSizer.getStats().get(KEY).getMaxSize());
+    }
+
+    @Test
+    public void refetchesShortPageWhenNextPageIsAnnounced() throws Throwable {
+        ArrayNode items = pageWalker.walk(KEY, "accounts", (page, size) -> {
+            int servedSize = Math.min(5, Integer.parseInt(size));
+            int pageNumber = Integer.parseInt(page);
+            ObjectNode response = page(pageNumber, servedSize, 100);
+            if ((pageNumber + 1) * servedSize < 100) {
+                response.put("nextPage", pageNumber + 1);
+            }
+            return response.toString();
+        });
+        assertItems(100, items);
+    }
+
+    @Test
+    public void takesOversizedFirstPageWithoutFurtherPagesAsCompleteResult() throws Throwable {
+        ArrayNode items = pageWalker.walk(KEY, "accounts", (page, size) -> page(0, 20, 20).toString());
+        assertItems(20, items);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsWhenLaterPageHasMoreItemsThanPageSize() throws Throwable {
+        pageWalker.walk(KEY, "accounts", (page, size) -> Integer.parseInt(page) == 0
+                ? withPageCount(page(0, Integer.parseInt(size), 100), Integer.parseInt(size), 100).toString()
+                : page(0, 40, 40).toString());
+    }
+
+    @Test
+    public void stopsWhenUpstreamIgnoresPageNumber() throws Throwable {
+        List<String> pages = new ArrayList<>();
+        ArrayNode items = pageWalker.walk(KEY, "accounts", (page, size) -> {
+            pages.add(page);
+            return page(0, Integer.parseInt(size), 1000).toString();
+        });
+        assertItems(16, items);
+        assertEquals(Arrays.asList("0", "1"), pages);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsAfterMaxPages() throws Throwable {
+        pageWalker.walk(KEY, "accounts", (page, size) -> {
+            int pageSize = Math.min(4, Integer.parseInt(size));
+            ObjectNode response = page(Integer.parseInt(page), pageSize, Integer.MAX_VALUE);
+            response.put("pageSize", pageSize);
+            return response.toString();
+        });
+    }
+
+    @Test
+    public void retriesReadTimeoutWithSmallerPage() throws Throwable {
+        List<Integer> sizes = new ArrayList<>();
+        ArrayNode items = pageWalker.walk(KEY, "accounts", (page, size) -> {
+            sizes.add(Integer.parseInt(size));
+            if (Integer.parseInt(size) > 4) {
+                throw new ResourceAccessException("I/O error", new SocketTimeoutException("Read timed out"));
+            }
+            return page(Integer.parseInt(page), Integer.parseInt(size), 3).toString();
+        });
+        assertItems(3, items);
+        assertEquals(Arrays.asList(16, 8, 4), sizes);
+    }
+
+    @Test
+    public void doesNotRetryConnectionFailure() throws Throwable {
+        List<Integer> sizes = new ArrayList<>();
+        try {
+            pageWalker.walk(KEY, "accounts", (page, size) -> {
+                sizes.add(Integer.parseInt(size));
+                throw new ResourceAccessException("I/O error", new ConnectException("Connection refused"));
+            });
+            fail("Connection failure should be rethrown");
+        } catch (ResourceAccessException ex) {
+            assertEquals(Arrays.asList(16), sizes);
+            assertEquals(16, pageSizer.nextSize(KEY, 0));
+        }
+    }
+
+    @Test
+    public void retriesFailedPageDownToMinSize() throws Throwable {
+        List<Integer> sizes = new ArrayList<>();
+        try {
+            pageWalker.walk(KEY, "accounts", (page, size) -> {
+                sizes.add(Integer.parseInt(size));
+                throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+            });
+            fail("Failure with min page size should be rethrown");
+        } catch (HttpServerErrorException ex) {
+            assertEquals(Arrays.asList(16, 8, 4, 2, 1), sizes);
+        }
+    }
+
+    @Test
+    public void doesNotRetryBadRequest() throws Throwable {
+        List<Integer> sizes = new ArrayList<>();
+        try {
+            pageWalker.walk(KEY, "accounts", (page, size) -> {
+                sizes.add(Integer.parseInt(size));
+                throw new HttpClientErrorException(HttpStatus.BAD_REQUEST);
+            });
+            fail("Bad request should be rethrown");
+        } catch (HttpClientErrorException ex) {
+            assertEquals(Arrays.asList(16), sizes);
+            assertEquals(16, pageSizer.nextSize(KEY, 0));
+        }
+    }
+
+    private ObjectNode page(int page, int size, int total) {
+        ObjectNode response = objectMapper.createObjectNode();
+        ArrayNode accounts = response.putArray("accounts");
+        for (int i = page * size; i < Math.min(total, (page + 1) * size); i++) {
+            accounts.add(i);
+        }
+        return response;
+    }
+
+    private ObjectNode withPageCount(ObjectNode response, int size, int total) {
+        response.put("pageCount", (total + size - 1) / size);
+        return response;
+    }
+
+    private void assertItems(int total, ArrayNode items) {
+        assertEquals(total, items.size());
+        for (int i = 0; i < total; i++) {
+            assertEquals(i, items.get(i).asInt());
+        }
+    }
+}